@@ -1,7 +1,28 @@
 package com.thecraftkid.apcs;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import static java.lang.System.out;
 
@@ -23,27 +44,1297 @@ public class chalmersw10 {
         fetchPrimesTo(START, END).forEach(out::println);
     }
 
+    /**
+     * Returns every prime between the given bounds, inclusive.
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check
+     * @return The primes in ascending order
+     * @see PrimeSieve
+     */
     public static List<Integer> fetchPrimesTo(int start, int end) {
         List<Integer> primes = new ArrayList<>();
-        for (int i = start; i <= end; i++) {
-            boolean isPrime = true;
-            for (int j = 2; j < i; j++) { /*That <= nearly screwed me. It turns out I did this right the first time*/
-                if (i % j == 0) {
-                    isPrime = false;
+        PrimeSieve.forEachPrime(start, end, prime -> primes.add((int) prime));
+        return primes;
+    }
+
+    /**
+     * Returns every prime between the given bounds, inclusive, without boxing any of them.
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check
+     * @return The primes in ascending order
+     */
+    public static int[] fetchPrimeInts(int start, int end) {
+        IntPrimeBuffer primes = new IntPrimeBuffer(PrimeSieve.estimateCount(start, end));
+        PrimeSieve.forEachPrime(start, end, primes);
+        return primes.toArray();
+    }
+
+    /**
+     * Returns every prime between the given bounds, inclusive, without boxing any of them.
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check, at most {@link PrimeSieve#MAX_LIMIT}
+     * @return The primes in ascending order
+     */
+    public static long[] fetchPrimeLongs(long start, long end) {
+        PrimeBuffer primes = new PrimeBuffer(PrimeSieve.estimateCount(start, end));
+        PrimeSieve.forEachPrime(start, end, primes);
+        return primes.toArray();
+    }
+
+    /**
+     * Returns a lazy stream of every prime between the given bounds, inclusive.
+     * <p>
+     * Segments are only sieved as the stream reaches them, so short-circuiting operations like
+     * {@code limit} or {@code findFirst} don't pay for the rest of the window.
+     * </p>
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check, at most {@link PrimeSieve#MAX_LIMIT}
+     */
+    public static LongStream streamPrimes(long start, long end) {
+        int characteristics = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT
+                | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        Spliterator.OfLong primes = Spliterators.spliteratorUnknownSize(
+                new PrimeIterator(start, end), characteristics);
+        return StreamSupport.longStream(primes, false);
+    }
+
+    /**
+     * Returns a lazy stream of every prime between the given bounds, inclusive.
+     *
+     * @see #streamPrimes(long, long)
+     */
+    public static IntStream streamIntPrimes(int start, int end) {
+        return streamPrimes(start, end).mapToInt(prime -> (int) prime);
+    }
+
+    /**
+     * Passes every prime between the given bounds, inclusive, to the sink in ascending order
+     * without allocating anything per prime.
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check, at most {@link PrimeSieve#MAX_LIMIT}
+     * @param sink  Receives each prime
+     */
+    public static void forEachPrime(long start, long end, PrimeSink sink) {
+        PrimeSieve.forEachPrime(start, end, sink);
+    }
+
+    /**
+     * Returns every prime between the given bounds, inclusive, from the process-wide
+     * {@link PrimeCache}.
+     * <p>
+     * Unlike {@link #fetchPrimesTo(int, int)}, repeated and overlapping queries don't redo any
+     * sieving. The returned list is a read-only view of the cache.
+     * </p>
+     *
+     * @param start The lowest number to check
+     * @param end   The highest number to check
+     * @return The primes in ascending order
+     */
+    public static List<Integer> fetchCachedPrimes(int start, int end) {
+        return PrimeCache.primesBetween(start, end);
+    }
+
+    /**
+     * Returns whether the given number is prime.
+     * <p>
+     * Unlike the sieves this tests a single number directly, so it's just as fast for 18 digit
+     * numbers as it is for small ones.
+     * </p>
+     *
+     * @see MillerRabin
+     */
+    public static boolean isPrime(long n) {
+        return MillerRabin.isPrime(n);
+    }
+
+    /**
+     * Returns the smallest prime greater than the given number.
+     *
+     * @throws ArithmeticException If there's no such prime that fits in a long
+     */
+    public static long nextPrime(long n) {
+        if (n < 2) {
+            return 2;
+        }
+        long candidate = (n + 1) | 1; // Every prime after 2 is odd
+        while (candidate > 0) {
+            if (MillerRabin.isPrime(candidate)) {
+                return candidate;
+            }
+            candidate += 2;
+        }
+        throw new ArithmeticException("No prime after " + n + " fits in a long");
+    }
+
+    /**
+     * Returns how many primes there are up to and including the given number, without finding
+     * any of them.
+     *
+     * @see PrimeCounter
+     */
+    public static long countPrimes(long x) {
+        return PrimeCounter.count(x);
+    }
+
+    /**
+     * Returns how many primes there are between the given bounds, inclusive.
+     * <p>
+     * Narrow windows are just sieved and counted. Wide ones are the difference of two
+     * {@link #countPrimes(long)} calls, which never look at the primes in between.
+     * </p>
+     */
+    public static long countPrimes(long start, long end) {
+        start = Math.max(start, 0);
+        if (start > end || end < 2) {
+            return 0;
+        }
+        // Sieving costs about the width of the window, counting about end^(3/4)
+        if (end <= PrimeSieve.MAX_LIMIT && end - start <= 4 * Math.pow(end, 0.75)) {
+            return new PrimeSieve(start, end).count();
+        }
+        return PrimeCounter.count(end) - PrimeCounter.count(start - 1);
+    }
+
+    /**
+     * Counts primes with the Lucy_Hedgehog variant of Legendre's method.
+     * <p>
+     * S(v) starts as the number of integers from 2 to v, and sieving by each prime p up to
+     * sqrt(x) removes the numbers whose smallest prime factor is p:
+     * S(v) -= S(v / p) - S(p - 1). Only the values x / i are ever needed, and there are about
+     * 2 sqrt(x) of those, so this takes O(sqrt(x)) memory and O(x^(3/4)) time. That's about a
+     * second for 10^12.
+     * </p>
+     */
+    static final class PrimeCounter {
+
+        private PrimeCounter() {
+        }
+
+        static long count(long x) {
+            if (x < 2) {
+                return 0;
+            }
+            long root = PrimeSieve.isqrt(x);
+            if (root >= Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too large to count: " + x);
+            }
+            int r = (int) root;
+            // small[v] is S(v) and large[i] is S(x / i)
+            long[] small = new long[r + 1];
+            long[] large = new long[r + 1];
+            for (int i = 1; i <= r; i++) {
+                small[i] = i - 1;
+                large[i] = x / i - 1;
+            }
+            for (int p = 2; p <= r; p++) {
+                if (small[p] == small[p - 1]) {
+                    continue; // p isn't prime
+                }
+                long primesBelow = small[p - 1];
+                long square = (long) p * p;
+                long largeEnd = Math.min(r, x / square);
+                for (int i = 1; i <= largeEnd; i++) {
+                    long d = (long) i * p;
+                    long quotientCount = d <= r ? large[(int) d] : small[(int) (x / d)];
+                    large[i] -= quotientCount - primesBelow;
+                }
+                for (int v = r; v >= square; v--) {
+                    small[v] -= small[v / p] - primesBelow;
+                }
+            }
+            return large[1];
+        }
+    }
+
+    /**
+     * A shared table of every prime up to some limit that grows whenever a query asks for more.
+     * <p>
+     * The table is published as an immutable {@link Snapshot} through a volatile field. Readers
+     * just grab the current snapshot and binary search it, so they never block. Only threads that
+     * need the table extended take the lock, and they append past the end of the array that
+     * older snapshots can see, so nobody else notices.
+     * </p>
+     */
+    public static class PrimeCache {
+
+        private static final int INITIAL_LIMIT = 1 << 16;
+
+        private static final Object GROW_LOCK = new Object();
+
+        private static volatile Snapshot snapshot = new Snapshot(new int[0], 0, 1);
+
+        private PrimeCache() {
+        }
+
+        /**
+         * Returns every prime between the given bounds, inclusive, as a view of the cache.
+         */
+        public static List<Integer> primesBetween(int start, int end) {
+            if (start > end || end < 2) {
+                return Collections.emptyList();
+            }
+            Snapshot table = ensureLimit(end);
+            int from = table.lowerBound(start);
+            int to = end == Integer.MAX_VALUE ? table.size : table.lowerBound(end + 1);
+            return new PrimeList(table.primes, from, to);
+        }
+
+        /**
+         * Returns a snapshot of the cache that covers at least every number up to the given
+         * limit, extending the table if it has to.
+         */
+        static Snapshot ensureLimit(int limit) {
+            Snapshot current = snapshot;
+            if (current.limit >= limit) {
+                return current;
+            }
+            synchronized (GROW_LOCK) {
+                current = snapshot;
+                if (current.limit >= limit) {
+                    return current;
+                }
+                // Grow geometrically so a run of slowly increasing queries doesn't resieve much
+                int target = (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(limit, Math.max(INITIAL_LIMIT, 2L * current.limit)));
+                int[] primes = current.primes;
+                int capacity = estimateCount(target);
+                if (primes.length < capacity) {
+                    primes = Arrays.copyOf(primes, capacity);
+                }
+                int[] grown = primes;
+                int[] size = {current.size};
+                PrimeSieve.forEachPrime(current.limit + 1L, target,
+                        prime -> grown[size[0]++] = (int) prime);
+                snapshot = new Snapshot(grown, size[0], target);
+                return snapshot;
+            }
+        }
+
+        /**
+         * Returns an upper bound for the number of primes up to the given number.
+         */
+        static int estimateCount(long n) {
+            if (n < 17) {
+                return 7;
+            }
+            // pi(x) < 1.25506 x / ln x for every x > 1
+            return (int) Math.min(Integer.MAX_VALUE - 8, (long) (1.25506 * n / Math.log(n)) + 1);
+        }
+
+        /**
+         * An immutable view of the first {@code size} primes of the shared table, which covers
+         * every number up to {@code limit}.
+         */
+        static final class Snapshot {
+
+            final int[] primes;
+
+            final int size;
+
+            final int limit;
+
+            Snapshot(int[] primes, int size, int limit) {
+                this.primes = primes;
+                this.size = size;
+                this.limit = limit;
+            }
+
+            /**
+             * Returns the index of the first prime that's at least the given number.
+             */
+            int lowerBound(int n) {
+                int index = Arrays.binarySearch(primes, 0, size, n);
+                return index < 0 ? -index - 1 : index;
+            }
+        }
+
+        /**
+         * A read-only list backed by a range of the prime table, boxing only on access.
+         */
+        private static final class PrimeList extends AbstractList<Integer> implements RandomAccess {
+
+            private final int[] primes;
+
+            private final int from;
+
+            private final int to;
+
+            PrimeList(int[] primes, int from, int to) {
+                this.primes = primes;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            public Integer get(int index) {
+                if (index < 0 || index >= size()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                }
+                return primes[from + index];
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        }
+    }
+
+    /**
+     * A segmented Sieve of Eratosthenes over an arbitrary window of the number line.
+     * <p>
+     * Only odd numbers are stored, one bit each, and the window is walked one segment at a time
+     * so the working set stays in L2 cache no matter how wide the range is. Crossing off
+     * composites only needs the primes up to the square root of the end of the window, which
+     * is at most a million or so for {@link #MAX_LIMIT}.
+     * </p>
+     */
+    public static class PrimeSieve {
+
+        /**
+         * The largest value a window is allowed to end at.
+         */
+        public static final long MAX_LIMIT = 1L << 40;
+
+        // 32K longs = 256 KiB of bits, which fits in most L2 caches
+        static final int SEGMENT_WORDS = 1 << 15;
+
+        // Eight full segments, so that a block's setup cost is small next to its sieving
+        private static final long MIN_BLOCK_SIZE = 8L * SEGMENT_WORDS * 64 * 2;
+
+        private final long end;
+
+        private final int[] basePrimes;
+
+        private final long[] segment;
+
+        private boolean includeTwo;
+
+        // The number represented by bit 0 of the next segment, always odd
+        private long segmentLow;
+
+        // How many bits of the segment the last call to sieveNextSegment() filled
+        private int segmentBits;
+
+        /**
+         * Prepares a sieve over the given window without doing any work yet.
+         *
+         * @param start The lowest number to check
+         * @param end   The highest number to check, at most {@link #MAX_LIMIT}
+         */
+        PrimeSieve(long start, long end) {
+            this(start, end, null);
+        }
+
+        /**
+         * Prepares a sieve over the given window that crosses off multiples of the given primes,
+         * which lets several sieves share one table.
+         *
+         * @param basePrimes Every odd prime up to the square root of {@code end}, or null to
+         *                   compute them
+         */
+        PrimeSieve(long start, long end, int[] basePrimes) {
+            checkLimit(end);
+            this.end = end;
+            this.includeTwo = start <= 2 && end >= 2;
+            this.segmentLow = Math.max(start, 3) | 1; // First odd number that could be prime
+            if (segmentLow > end) {
+                this.basePrimes = new int[0];
+                this.segment = new long[0];
+            } else {
+                long bits = (end - segmentLow) / 2 + 1;
+                this.basePrimes = basePrimes != null ? basePrimes : basePrimesFor(end);
+                this.segment = new long[(int) Math.min(SEGMENT_WORDS, (bits + 63) >>> 6)];
+            }
+        }
+
+        /**
+         * Passes every prime between the given bounds, inclusive, to the sink in ascending order.
+         *
+         * @param start The lowest number to check
+         * @param end   The highest number to check, at most {@link #MAX_LIMIT}
+         * @param sink  Receives each prime
+         */
+        public static void forEachPrime(long start, long end, PrimeSink sink) {
+            if (start > end) {
+                return;
+            }
+            new PrimeSieve(start, end).forEach(sink);
+        }
+
+        /**
+         * Returns every prime between the given bounds, inclusive, sieving independent blocks of
+         * the window on all cores.
+         * <p>
+         * Each block is handed to the common {@link ForkJoinPool} with its own segment buffer and
+         * output array, and the arrays are stitched together in order once every block is done,
+         * so the workers never contend on anything.
+         * </p>
+         *
+         * @param start The lowest number to check
+         * @param end   The highest number to check, at most {@link #MAX_LIMIT}
+         * @return The primes in ascending order
+         * @throws ArithmeticException If there are too many primes to fit in an array
+         */
+        public static long[] parallelPrimes(long start, long end) {
+            List<ForkJoinTask<long[]>> blocks = forkBlocks(start, end, (sieve, low, high) -> {
+                PrimeBuffer buffer = new PrimeBuffer(estimateCount(low, high));
+                sieve.forEach(buffer);
+                return buffer.toArray();
+            });
+            long total = 0;
+            for (ForkJoinTask<long[]> block : blocks) {
+                total += block.join().length;
+            }
+            long[] primes = new long[Math.toIntExact(total)];
+            int position = 0;
+            for (ForkJoinTask<long[]> block : blocks) {
+                long[] blockPrimes = block.join();
+                System.arraycopy(blockPrimes, 0, primes, position, blockPrimes.length);
+                position += blockPrimes.length;
+            }
+            return primes;
+        }
+
+        /**
+         * Returns how many primes there are between the given bounds, inclusive, sieving
+         * independent blocks of the window on all cores without storing any of them.
+         *
+         * @param start The lowest number to check
+         * @param end   The highest number to check, at most {@link #MAX_LIMIT}
+         */
+        public static long parallelCount(long start, long end) {
+            long total = 0;
+            List<ForkJoinTask<Long>> blocks = forkBlocks(start, end,
+                    (sieve, low, high) -> sieve.count());
+            for (ForkJoinTask<Long> block : blocks) {
+                total += block.join();
+            }
+            return total;
+        }
+
+        /**
+         * Splits the window into blocks, runs the given work on each of them on the common pool
+         * and waits for all of them to finish.
+         *
+         * @return The finished tasks, in the order of the blocks they covered
+         */
+        private static <T> List<ForkJoinTask<T>> forkBlocks(long start, long end,
+                                                            BlockWork<T> work) {
+            checkLimit(end);
+            List<ForkJoinTask<T>> tasks = new ArrayList<>();
+            start = Math.max(start, 0);
+            if (start > end) {
+                return tasks;
+            }
+            int[] basePrimes = basePrimesFor(end);
+            // A few blocks per worker keeps everyone busy even if some finish early
+            long blocks = 4L * ForkJoinPool.getCommonPoolParallelism();
+            long blockSize = Math.max(MIN_BLOCK_SIZE, ((end - start) / blocks + 2) & ~1L);
+            for (long low = start; low <= end; low += blockSize) {
+                long blockLow = low;
+                long blockHigh = Math.min(end, low + blockSize - 1);
+                tasks.add(ForkJoinTask.adapt(() -> work.run(
+                        new PrimeSieve(blockLow, blockHigh, basePrimes), blockLow, blockHigh)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            return tasks;
+        }
+
+        /**
+         * Passes every prime in this sieve's window to the sink in ascending order.
+         */
+        void forEach(PrimeSink sink) {
+            while (sieveNextSegment()) {
+                emitSegment(sink);
+            }
+        }
+
+        /**
+         * Returns how many primes are in this sieve's window.
+         */
+        long count() {
+            long count = 0;
+            while (sieveNextSegment()) {
+                count += countSegment();
+            }
+            return count;
+        }
+
+        /**
+         * Crosses off the composites in the next segment of the window.
+         *
+         * @return False if the whole window has already been sieved
+         */
+        boolean sieveNextSegment() {
+            if (segmentBits > 0) {
+                segmentLow += 2L * segmentBits;
+            }
+            if (segmentLow > end) {
+                segmentBits = 0;
+                return includeTwo;
+            }
+            long segmentHigh = Math.min(end, segmentLow + 2L * (segment.length * 64L - 1));
+            int bits = (int) ((segmentHigh - segmentLow) / 2) + 1;
+            Arrays.fill(segment, 0, (bits + 63) >>> 6, 0L);
+            for (int prime : basePrimes) {
+                long square = (long) prime * prime;
+                if (square > segmentHigh) {
                     break;
                 }
+                long first;
+                if (square >= segmentLow) {
+                    first = square;
+                } else {
+                    first = (segmentLow + prime - 1) / prime * prime;
+                    if ((first & 1) == 0) {
+                        first += prime; // Even multiples aren't stored
+                    }
+                }
+                for (int i = (int) ((first - segmentLow) >>> 1); i < bits; i += prime) {
+                    segment[i >>> 6] |= 1L << i;
+                }
+            }
+            segmentBits = bits;
+            return true;
+        }
+
+        /**
+         * Passes the primes found by the last call to {@link #sieveNextSegment()} to the
+         * sink.
+         */
+        void emitSegment(PrimeSink sink) {
+            if (includeTwo) {
+                sink.accept(2);
+                includeTwo = false;
             }
-            if (isPrime) {
-                primes.add(i);
+            int words = (segmentBits + 63) >>> 6;
+            for (int w = 0; w < words; w++) {
+                long word = ~segment[w]; // Set bits are composites
+                if (w == words - 1 && (segmentBits & 63) != 0) {
+                    word &= (1L << segmentBits) - 1;
+                }
+                long base = segmentLow + ((long) w << 7);
+                while (word != 0) {
+                    sink.accept(base + 2L * Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
             }
         }
-        return primes;
+
+        /**
+         * Counts the primes found by the last call to {@link #sieveNextSegment()}.
+         */
+        int countSegment() {
+            int count = 0;
+            if (includeTwo) {
+                count++;
+                includeTwo = false;
+            }
+            int words = (segmentBits + 63) >>> 6;
+            for (int w = 0; w < words; w++) {
+                long word = ~segment[w];
+                if (w == words - 1 && (segmentBits & 63) != 0) {
+                    word &= (1L << segmentBits) - 1;
+                }
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        /**
+         * Returns a rough guess of how many primes are between the given bounds, for sizing
+         * buffers.
+         */
+        static int estimateCount(long low, long high) {
+            if (high < 17) {
+                return 8;
+            }
+            double guess = (high - Math.max(low, 0) + 1) / (Math.log(high) - 1.1);
+            return (int) Math.min(Integer.MAX_VALUE - 8, (long) (guess * 1.05) + 16);
+        }
+
+        /**
+         * Returns every odd prime needed to sieve a window that ends at the given number.
+         */
+        static int[] basePrimesFor(long end) {
+            return oddPrimesTo((int) isqrt(end));
+        }
+
+        private static void checkLimit(long end) {
+            if (end > MAX_LIMIT) {
+                throw new IllegalArgumentException("Can't sieve past " + MAX_LIMIT + ": " + end);
+            }
+        }
+
+        /**
+         * Returns every odd prime up to and including the given number using a plain sieve.
+         */
+        static int[] oddPrimesTo(int n) {
+            if (n < 3) {
+                return new int[0];
+            }
+            // Index i stands for 2i + 1
+            int size = (n - 1) / 2 + 1;
+            boolean[] composite = new boolean[size];
+            int count = 0;
+            for (int i = 1; i < size; i++) {
+                if (!composite[i]) {
+                    count++;
+                    long p = 2L * i + 1;
+                    for (long j = (p * p) / 2; j < size; j += p) {
+                        composite[(int) j] = true;
+                    }
+                }
+            }
+            int[] primes = new int[count];
+            for (int i = 1, k = 0; i < size; i++) {
+                if (!composite[i]) {
+                    primes[k++] = 2 * i + 1;
+                }
+            }
+            return primes;
+        }
+
+        /**
+         * Returns the largest number whose square is at most the given number.
+         */
+        static long isqrt(long n) {
+            long root = (long) Math.sqrt((double) n);
+            while (root * root > n) {
+                root--;
+            }
+            while ((root + 1) * (root + 1) <= n) {
+                root++;
+            }
+            return root;
+        }
+
+        /**
+         * Work done on one block of a window split up by {@link #forkBlocks}.
+         */
+        private interface BlockWork<T> {
+            T run(PrimeSieve sieve, long low, long high);
+        }
     }
 
+    /**
+     * A prime table stored on disk as a wheel-30 bitmap and read back through a memory map.
+     * <p>
+     * Every prime past 5 is 1, 7, 11, 13, 17, 19, 23 or 29 more than a multiple of 30, so each
+     * byte of the bitmap covers 30 numbers with one bit per possible prime. That's about 33 MB
+     * per billion numbers. The table is written once with {@link #write(Path, long)} and opened
+     * with {@link #open(Path)}; queries read straight out of the page cache, so they use no heap
+     * and survive a restart without any sieving.
+     * </p>
+     * <p>
+     * The file starts with a 16 byte header: a magic number, a format version and the limit the
+     * table covers. The bitmap follows immediately after it.
+     * </p>
+     */
+    public static class PrimeTable implements Closeable {
 
-    public static List<Integer> fetchCachedPrimes(int start, int end) {
-        List<Integer> primes = new ArrayList<>();
-        return primes;
+        private static final int MAGIC = 0x5052494D; // "PRIM"
+
+        private static final int VERSION = 1;
+
+        private static final int HEADER_BYTES = 16;
+
+        private static final int[] RESIDUES = {1, 7, 11, 13, 17, 19, 23, 29};
+
+        // Which bit each residue mod 30 is stored in, or -1 if that residue can't be prime
+        private static final int[] BIT_OF_RESIDUE = new int[30];
+
+        // Only the bits for residues at or above the index, and at or below it
+        private static final int[] BITS_FROM = new int[30];
+
+        private static final int[] BITS_TO = new int[30];
+
+        // 1 GiB per mapping, comfortably under the 2 GiB a single map is capped at
+        private static final int MAP_SHIFT = 30;
+
+        // Bytes written per batch when creating a table
+        private static final int WRITE_CHUNK = 1 << 20;
+
+        static {
+            Arrays.fill(BIT_OF_RESIDUE, -1);
+            for (int bit = 0; bit < RESIDUES.length; bit++) {
+                BIT_OF_RESIDUE[RESIDUES[bit]] = bit;
+            }
+            for (int residue = 0; residue < 30; residue++) {
+                for (int bit = 0; bit < RESIDUES.length; bit++) {
+                    if (RESIDUES[bit] >= residue) {
+                        BITS_FROM[residue] |= 1 << bit;
+                    }
+                    if (RESIDUES[bit] <= residue) {
+                        BITS_TO[residue] |= 1 << bit;
+                    }
+                }
+            }
+        }
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer[] maps;
+
+        private final long limit;
+
+        private PrimeTable(FileChannel channel, MappedByteBuffer[] maps, long limit) {
+            this.channel = channel;
+            this.maps = maps;
+            this.limit = limit;
+        }
+
+        /**
+         * Sieves every prime up to the given limit and writes them to a new table file,
+         * replacing anything already there.
+         *
+         * @param path  Where to write the table
+         * @param limit The largest number the table should cover, at most
+         *              {@link PrimeSieve#MAX_LIMIT}
+         */
+        public static void write(Path path, long limit) throws IOException {
+            if (limit < 0) {
+                throw new IllegalArgumentException("Limit can't be negative: " + limit);
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(limit).flip();
+                writeFully(channel, header);
+                BitmapWriter writer = new BitmapWriter(channel, limit / 30 + 1);
+                PrimeSieve.forEachPrime(7, limit, writer);
+                writer.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Opens a table created by {@link #write(Path, long)} and maps it into memory.
+         */
+        public static PrimeTable open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // Keep reading until the header is full or the file runs out
+                }
+                header.flip();
+                if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                    throw new IOException(path + " isn't a prime table");
+                }
+                int version = header.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported prime table version " + version);
+                }
+                long limit = header.getLong();
+                long bytes = limit / 30 + 1;
+                if (limit < 0 || channel.size() < HEADER_BYTES + bytes) {
+                    throw new IOException(path + " is truncated");
+                }
+                int mapCount = (int) ((bytes - 1) >>> MAP_SHIFT) + 1;
+                MappedByteBuffer[] maps = new MappedByteBuffer[mapCount];
+                for (int i = 0; i < maps.length; i++) {
+                    long offset = (long) i << MAP_SHIFT;
+                    long length = Math.min(1L << MAP_SHIFT, bytes - offset);
+                    maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + offset,
+                            length);
+                }
+                return new PrimeTable(channel, maps, limit);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the largest number this table covers.
+         */
+        public long getLimit() {
+            return limit;
+        }
+
+        /**
+         * Returns whether the given number is prime.
+         *
+         * @throws IllegalArgumentException If the number is past the end of the table
+         */
+        public boolean isPrime(long n) {
+            checkInTable(n);
+            if (n < 7) {
+                return n == 2 || n == 3 || n == 5;
+            }
+            int bit = BIT_OF_RESIDUE[(int) (n % 30)];
+            return bit >= 0 && (byteAt(n / 30) & (1 << bit)) != 0;
+        }
+
+        /**
+         * Passes every prime between the given bounds, inclusive, to the sink in ascending order.
+         *
+         * @throws IllegalArgumentException If the range runs past the end of the table
+         */
+        public void forEachPrime(long start, long end, PrimeSink sink) {
+            checkInTable(end);
+            start = Math.max(start, 0);
+            if (start > end) {
+                return;
+            }
+            for (long small = 2; small <= 5 && small <= end; small += small == 2 ? 1 : 2) {
+                if (small >= start) {
+                    sink.accept(small);
+                }
+            }
+            start = Math.max(start, 7);
+            if (start > end) {
+                return;
+            }
+            for (long index = start / 30, last = end / 30; index <= last; index++) {
+                int bits = byteAt(index) & 0xFF;
+                if (index == start / 30) {
+                    bits &= BITS_FROM[(int) (start % 30)];
+                }
+                if (index == last) {
+                    bits &= BITS_TO[(int) (end % 30)];
+                }
+                while (bits != 0) {
+                    sink.accept(index * 30 + RESIDUES[Integer.numberOfTrailingZeros(bits)]);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        /**
+         * Returns every prime between the given bounds, inclusive.
+         *
+         * @throws IllegalArgumentException If the range runs past the end of the table
+         */
+        public long[] primesBetween(long start, long end) {
+            PrimeBuffer primes = new PrimeBuffer(PrimeSieve.estimateCount(start, end));
+            forEachPrime(start, end, primes);
+            return primes.toArray();
+        }
+
+        /**
+         * Returns how many primes there are between the given bounds, inclusive.
+         *
+         * @throws IllegalArgumentException If the range runs past the end of the table
+         */
+        public long count(long start, long end) {
+            checkInTable(end);
+            start = Math.max(start, 0);
+            if (start > end) {
+                return 0;
+            }
+            long count = 0;
+            for (long small = 2; small <= 5; small += small == 2 ? 1 : 2) {
+                if (small >= start && small <= end) {
+                    count++;
+                }
+            }
+            start = Math.max(start, 7);
+            if (start > end) {
+                return count;
+            }
+            long first = start / 30;
+            long last = end / 30;
+            if (first == last) {
+                int bits = byteAt(first) & BITS_FROM[(int) (start % 30)];
+                return count + Integer.bitCount(bits & BITS_TO[(int) (end % 30)]);
+            }
+            count += Integer.bitCount(byteAt(first) & BITS_FROM[(int) (start % 30)]);
+            count += Integer.bitCount(byteAt(last) & BITS_TO[(int) (end % 30)]);
+            for (long index = first + 1; index < last; ) {
+                MappedByteBuffer map = maps[(int) (index >>> MAP_SHIFT)];
+                int offset = (int) (index & ((1 << MAP_SHIFT) - 1));
+                int stop = (int) Math.min(map.limit(), offset + (last - index));
+                // Eight bytes at a time while we can
+                for (; offset + 8 <= stop; offset += 8, index += 8) {
+                    count += Long.bitCount(map.getLong(offset));
+                }
+                for (; offset < stop; offset++, index++) {
+                    count += Integer.bitCount(map.get(offset) & 0xFF);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Closes the file. The mapping itself is released once it's garbage collected.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private int byteAt(long index) {
+            return maps[(int) (index >>> MAP_SHIFT)].get((int) (index & ((1 << MAP_SHIFT) - 1)));
+        }
+
+        private void checkInTable(long n) {
+            if (n > limit) {
+                throw new IllegalArgumentException(
+                        n + " is past the end of the table (" + limit + ")");
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Packs primes into the wheel bitmap and writes it out a chunk at a time.
+         */
+        private static class BitmapWriter implements PrimeSink {
+
+            private final FileChannel channel;
+
+            private final long totalBytes;
+
+            private final ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK);
+
+            // The bitmap index of the first byte in the chunk
+            private long chunkStart;
+
+            BitmapWriter(FileChannel channel, long totalBytes) {
+                this.channel = channel;
+                this.totalBytes = totalBytes;
+            }
+
+            @Override
+            public void accept(long prime) {
+                long index = prime / 30;
+                while (index >= chunkStart + WRITE_CHUNK) {
+                    flush(WRITE_CHUNK);
+                }
+                int offset = (int) (index - chunkStart);
+                int bit = BIT_OF_RESIDUE[(int) (prime % 30)];
+                chunk.put(offset, (byte) (chunk.get(offset) | (1 << bit)));
+            }
+
+            void finish() {
+                while (chunkStart < totalBytes) {
+                    flush((int) Math.min(WRITE_CHUNK, totalBytes - chunkStart));
+                }
+            }
+
+            private void flush(int length) {
+                chunk.clear().limit(length);
+                try {
+                    writeFully(channel, chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e); // PrimeSink can't throw checked exceptions
+                }
+                Arrays.fill(chunk.array(), (byte) 0);
+                chunkStart += length;
+            }
+        }
+    }
+
+    /**
+     * A deterministic Miller-Rabin primality test for every long.
+     * <p>
+     * Small factors are ruled out by trial division first. Whatever's left is tested against a
+     * witness set that is known to have no strong liars below its bound: {2, 7, 61} below 2^32
+     * and Jim Sinclair's seven bases for the rest of the 64-bit range. All the modular math is
+     * done in Montgomery form, so there's no 128-bit division anywhere.
+     * </p>
+     */
+    static final class MillerRabin {
+
+        private static final int[] SMALL_PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+
+        private static final long[] WITNESSES_32 = {2, 7, 61};
+
+        private static final long[] WITNESSES_64 =
+                {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+
+        private MillerRabin() {
+        }
+
+        static boolean isPrime(long n) {
+            if (n < 2) {
+                return false;
+            }
+            for (int prime : SMALL_PRIMES) {
+                if (n % prime == 0) {
+                    return n == prime;
+                }
+            }
+            if (n < 37 * 37) {
+                return true;
+            }
+            long d = n - 1;
+            int shift = Long.numberOfTrailingZeros(d);
+            d >>>= shift;
+            Montgomery montgomery = new Montgomery(n);
+            for (long witness : n < (1L << 32) ? WITNESSES_32 : WITNESSES_64) {
+                witness %= n;
+                if (witness != 0 && !isStrongProbablePrime(montgomery, witness, d, shift)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Runs one round of Miller-Rabin, where {@code n - 1 = d * 2^shift} and {@code d} is odd.
+         */
+        private static boolean isStrongProbablePrime(Montgomery montgomery, long witness, long d,
+                                                     int shift) {
+            long x = montgomery.pow(montgomery.toMontgomery(witness), d);
+            if (x == montgomery.one || x == montgomery.minusOne) {
+                return true;
+            }
+            for (int i = 1; i < shift; i++) {
+                x = montgomery.multiply(x, x);
+                if (x == montgomery.minusOne) {
+                    return true;
+                }
+                if (x == montgomery.one) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Arithmetic modulo a fixed odd number using Montgomery multiplication with R = 2^64.
+     * <p>
+     * Numbers are kept in Montgomery form, {@code aR mod n}, which turns every modular
+     * multiplication into two 64-bit multiplies and a subtraction instead of a 128-bit division.
+     * Values are treated as unsigned, so any odd modulus works.
+     * </p>
+     */
+    static final class Montgomery {
+
+        final long modulus;
+
+        /**
+         * 1 in Montgomery form.
+         */
+        final long one;
+
+        /**
+         * -1 in Montgomery form.
+         */
+        final long minusOne;
+
+        // modulus^-1 mod 2^64
+        private final long inverse;
+
+        // R^2 mod modulus, for converting into Montgomery form
+        private final long rSquared;
+
+        Montgomery(long modulus) {
+            if ((modulus & 1) == 0) {
+                throw new IllegalArgumentException("Modulus must be odd: " + modulus);
+            }
+            this.modulus = modulus;
+            // Newton's method doubles the correct bits each step, and n is its own inverse mod 8
+            long inverse = modulus;
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - modulus * inverse;
+            }
+            this.inverse = inverse;
+            this.one = Long.remainderUnsigned(-modulus, modulus);
+            long r = one;
+            for (int i = 0; i < 64; i++) {
+                r = add(r, r);
+            }
+            this.rSquared = r;
+            this.minusOne = modulus - one;
+        }
+
+        long toMontgomery(long a) {
+            return multiply(Long.remainderUnsigned(a, modulus), rSquared);
+        }
+
+        long fromMontgomery(long a) {
+            return reduce(0, a);
+        }
+
+        long multiply(long a, long b) {
+            return reduce(multiplyHigh(a, b), a * b);
+        }
+
+        long add(long a, long b) {
+            long sum = a + b;
+            // Either the sum wrapped past 2^64 or it's past the modulus; both need one subtraction
+            if (Long.compareUnsigned(sum, a) < 0 || Long.compareUnsigned(sum, modulus) >= 0) {
+                sum -= modulus;
+            }
+            return sum;
+        }
+
+        long subtract(long a, long b) {
+            long difference = a - b;
+            return Long.compareUnsigned(a, b) < 0 ? difference + modulus : difference;
+        }
+
+        long pow(long base, long exponent) {
+            long result = one;
+            while (exponent != 0) {
+                if ((exponent & 1) != 0) {
+                    result = multiply(result, base);
+                }
+                base = multiply(base, base);
+                exponent >>>= 1;
+            }
+            return result;
+        }
+
+        /**
+         * Divides the 128-bit number {@code high:low} by R modulo the modulus.
+         */
+        private long reduce(long high, long low) {
+            // m * modulus has the same low word as the input, so subtracting it clears that word
+            long m = low * inverse;
+            long mHigh = multiplyHigh(m, modulus);
+            long result = high - mHigh;
+            return Long.compareUnsigned(high, mHigh) < 0 ? result + modulus : result;
+        }
+
+        /**
+         * Returns the high 64 bits of the unsigned 128-bit product of the given numbers.
+         */
+        static long multiplyHigh(long a, long b) {
+            long aLow = a & 0xFFFFFFFFL;
+            long aHigh = a >>> 32;
+            long bLow = b & 0xFFFFFFFFL;
+            long bHigh = b >>> 32;
+            long lowLow = aLow * bLow;
+            long middle = aHigh * bLow + (lowLow >>> 32);
+            long carry = aLow * bHigh + (middle & 0xFFFFFFFFL);
+            return aHigh * bHigh + (middle >>> 32) + (carry >>> 32);
+        }
+    }
+
+    /**
+     * Receives primes one at a time as a sieve finds them.
+     * <p>
+     * This is the cheapest way to consume primes since nothing is allocated or boxed along the
+     * way; the arrays and streams are all built on top of it.
+     * </p>
+     */
+    @FunctionalInterface
+    public interface PrimeSink {
+        void accept(long prime);
+    }
+
+    /**
+     * Walks a window one sieved segment at a time, which lets the primes be pulled lazily instead
+     * of pushed.
+     */
+    static class PrimeIterator implements PrimitiveIterator.OfLong {
+
+        private final PrimeSieve sieve;
+
+        private final PrimeBuffer segment = new PrimeBuffer(0);
+
+        private int index;
+
+        PrimeIterator(long start, long end) {
+            this.sieve = new PrimeSieve(start, end);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index == segment.size()) {
+                segment.clear();
+                index = 0;
+                if (!sieve.sieveNextSegment()) {
+                    return false;
+                }
+                sieve.emitSegment(segment);
+            }
+            return true;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return segment.get(index++);
+        }
+    }
+
+    /**
+     * A growable array of primes, so collecting them doesn't box anything.
+     */
+    static class PrimeBuffer implements PrimeSink {
+
+        private long[] primes;
+
+        private int size;
+
+        PrimeBuffer(int capacity) {
+            this.primes = new long[Math.max(capacity, 16)];
+        }
+
+        @Override
+        public void accept(long prime) {
+            if (size == primes.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, size + (size >> 1) + 16L);
+                if (capacity == size) {
+                    throw new ArithmeticException("Too many primes to fit in an array");
+                }
+                primes = Arrays.copyOf(primes, capacity);
+            }
+            primes[size++] = prime;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return primes[index];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        long[] toArray() {
+            return size == primes.length ? primes : Arrays.copyOf(primes, size);
+        }
+    }
+
+    /**
+     * A growable array of primes that all fit in an int.
+     */
+    static class IntPrimeBuffer implements PrimeSink {
+
+        private int[] primes;
+
+        private int size;
+
+        IntPrimeBuffer(int capacity) {
+            this.primes = new int[Math.max(capacity, 16)];
+        }
+
+        @Override
+        public void accept(long prime) {
+            if (size == primes.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, size + (size >> 1) + 16L);
+                primes = Arrays.copyOf(primes, capacity);
+            }
+            primes[size++] = (int) prime;
+        }
+
+        int[] toArray() {
+            return size == primes.length ? primes : Arrays.copyOf(primes, size);
+        }
     }
 
 }
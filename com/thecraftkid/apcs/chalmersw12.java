@@ -2,7 +2,33 @@ package com.thecraftkid.apcs;
 
 import com.thecraftkid.apcs.given.LabHelper;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * A program that sorts integers from least to greatest using different
@@ -18,10 +44,11 @@ public class chalmersw12 {
         Sorter sorter = new Sorter(items);
         System.out.println("Original: \n" + sorter);
         int[] insertSortedItems = sorter.sortInsertion();
-//        int[] selectionSortedItems = sortSelection(original);
+        int[] selectionSortedItems = sorter.sortSelection();
         System.out.println("Sorted with insertion sort: ");
         printList(insertSortedItems);
-//        printList(selectionSortedItems);
+        System.out.println("Sorted with selection sort: ");
+        printList(selectionSortedItems);
     }
 
     static void printList(int[] list) {
@@ -38,8 +65,15 @@ public class chalmersw12 {
 
         private SortCallback callback;
 
+        // topK and bottomK use a heap when k is less than this fraction of the items
+        private static final int SMALL_K_FRACTION = 16;
+
+        /**
+         * Creates a sorter over the given items. The sorter keeps a reference to the array
+         * rather than copying it, so changes to it show up in the next sort.
+         */
         public Sorter(int[] items) {
-            this.original = clone(items);
+            this.original = items;
         }
 
         public Sorter(int[] items, SortCallback callback) {
@@ -48,21 +82,111 @@ public class chalmersw12 {
         }
 
         /**
-         * Performs an insertion sort with this sorter's item.
+         * Sorts this sorter's items with whichever algorithm suits them best.
          *
          * @return A sorted copy of the array
+         * @see Algorithm#AUTO
          */
-        public int[] sortInsertion() {
+        public int[] sort() {
+            return sort(Algorithm.AUTO);
+        }
+
+        /**
+         * Sorts this sorter's items with the given algorithm.
+         *
+         * @return A sorted copy of the array
+         */
+        public int[] sort(SortAlgorithm algorithm) {
             int[] sorted = clone(original);
-            for (int i = 0; i < sorted.length; i++) {
-                int j = i;
-                while (j > 0 && sorted[j] < sorted[j - 1]) {
-                    swap(sorted, j, j - 1);
-                    j -= 1;
-                }
+            sortWithCallback(sorted, 0, sorted.length, algorithm, callback);
+            return sorted;
+        }
+
+        /**
+         * Sorts this sorter's own array with the given algorithm instead of a copy of it. Saves
+         * allocating a second array the size of the first, which matters for huge arrays, though
+         * the algorithm itself may still allocate scratch space unless it's one of the
+         * {@linkplain Algorithm#IN_PLACE in-place} ones.
+         */
+        public void sortInPlace(SortAlgorithm algorithm) {
+            sortWithCallback(original, 0, original.length, algorithm, callback);
+        }
+
+        /**
+         * Sorts the given array in place with whichever {@linkplain Algorithm#IN_PLACE
+         * non-allocating} algorithm suits it best.
+         */
+        public static void sortInPlace(int[] list) {
+            sortInPlace(list, 0, list.length, Algorithm.IN_PLACE, SortProbe.NONE);
+        }
+
+        /**
+         * Sorts {@code length} items of the given array starting at {@code offset} in place,
+         * leaving the rest of it alone. Like {@link #sortInPlace(int[])}, this never allocates
+         * scratch space proportional to the slice.
+         */
+        public static void sortInPlace(int[] list, int offset, int length) {
+            sortInPlace(list, offset, length, Algorithm.IN_PLACE);
+        }
+
+        /**
+         * Sorts {@code length} items of the given array starting at {@code offset} in place
+         * with the given algorithm, using whatever scratch space that algorithm needs.
+         */
+        public static void sortInPlace(int[] list, int offset, int length,
+                                       SortAlgorithm algorithm) {
+            sortInPlace(list, offset, length, algorithm, SortProbe.NONE);
+        }
+
+        /**
+         * Sorts {@code length} items of the given array starting at {@code offset} in place
+         * with the given algorithm, reporting what it does to the probe.
+         *
+         * @see SortStats
+         */
+        public static void sortInPlace(int[] list, int offset, int length,
+                                       SortAlgorithm algorithm, SortProbe probe) {
+            checkSlice(list.length, offset, length);
+            algorithm.sort(list, offset, offset + length, probe);
+        }
 
+        /**
+         * Sorts the slice in place, telling the callback which algorithm ran, every sampled
+         * write and the final statistics. A null callback just sorts.
+         */
+        private static void sortWithCallback(int[] list, int offset, int length,
+                                             SortAlgorithm algorithm, SortCallback callback) {
+            if (callback == null) {
+                sortInPlace(list, offset, length, algorithm, SortProbe.NONE);
+                return;
             }
-            return sorted;
+            checkSlice(list.length, offset, length);
+            int to = offset + length;
+            if (algorithm == Algorithm.AUTO) {
+                algorithm = IntSorts.choose(list, offset, to);
+            } else if (algorithm == Algorithm.IN_PLACE) {
+                algorithm = IntSorts.chooseInPlace(list, offset, to);
+            }
+            callback.onStrategySelected(algorithm);
+            SortStats stats = new SortStats(callback);
+            algorithm.sort(list, offset, to, stats);
+            callback.onFinished(stats);
+        }
+
+        private static void checkSlice(int arrayLength, int offset, int length) {
+            if (offset < 0 || length < 0 || offset > arrayLength - length) {
+                throw new ArrayIndexOutOfBoundsException(
+                        "Slice of " + length + " at " + offset + " in " + arrayLength);
+            }
+        }
+
+        /**
+         * Performs an insertion sort with this sorter's item.
+         *
+         * @return A sorted copy of the array
+         */
+        public int[] sortInsertion() {
+            return sort(Algorithm.INSERTION);
         }
 
         /**
@@ -71,10 +195,7 @@ public class chalmersw12 {
          * @return A sorted copy of the array
          */
         public int[] sortSelection() {
-            int[] sorted = clone(original);
-            for (int i = 1; i < sorted.length + 1; i++) {
-            }
-            return sorted;
+            return sort(Algorithm.SELECTION);
         }
 
         /**
@@ -83,10 +204,179 @@ public class chalmersw12 {
          * @return The sorted array
          */
         public int[] sortBackwards() {
-            int[] sorted = clone(original);
+            int[] sorted = sort();
+            for (int i = 0, j = sorted.length - 1; i < j; i++, j--) {
+                swap(sorted, i, j);
+            }
             return sorted;
         }
 
+        /**
+         * Finds the item that would be at index {@code k} if this sorter's items were sorted,
+         * in linear time on average, without sorting them.
+         *
+         * @param k The index in sorted order, counting from 0 for the smallest
+         */
+        public int select(int k) {
+            if (k < 0 || k >= original.length) {
+                throw new IndexOutOfBoundsException(
+                        "Index " + k + " of " + original.length + " items");
+            }
+            int[] items = clone(original);
+            IntSorts.select(items, 0, items.length, k);
+            return items[k];
+        }
+
+        /**
+         * Returns the {@code k} smallest items, or all of them if there are fewer.
+         *
+         * @return The items from least to greatest
+         */
+        public int[] bottomK(int k) {
+            return firstK(k, false);
+        }
+
+        /**
+         * Returns the {@code k} largest items, or all of them if there are fewer.
+         *
+         * @return The items from greatest to least
+         */
+        public int[] topK(int k) {
+            return firstK(k, true);
+        }
+
+        private int[] firstK(int k, boolean largest) {
+            if (k < 0) {
+                throw new IllegalArgumentException("k can't be negative: " + k);
+            }
+            k = Math.min(k, original.length);
+            if (k < original.length / SMALL_K_FRACTION) {
+                // A heap of k items beats copying everything when k is small
+                TopK top = largest ? TopK.largest(k) : TopK.smallest(k);
+                for (int item : original) {
+                    top.offer(item);
+                }
+                return top.toArray();
+            }
+            int[] items = clone(original);
+            if (largest) {
+                // Select the boundary from the top end, then sort just the part above it
+                int boundary = items.length - k;
+                if (k > 0) {
+                    IntSorts.select(items, 0, items.length, boundary);
+                }
+                sortInPlace(items, boundary, k);
+                int[] result = new int[k];
+                for (int i = 0; i < k; i++) {
+                    result[i] = items[items.length - 1 - i];
+                }
+                return result;
+            }
+            if (k > 0) {
+                IntSorts.select(items, 0, items.length, k - 1);
+            }
+            sortInPlace(items, 0, k);
+            return Arrays.copyOf(items, k);
+        }
+
+        /**
+         * Sorts the given array of longs in place.
+         */
+        public static void sortInPlace(long[] list) {
+            sortInPlace(list, 0, list.length);
+        }
+
+        /**
+         * Sorts {@code length} longs of the given array starting at {@code offset} in place.
+         */
+        public static void sortInPlace(long[] list, int offset, int length) {
+            checkSlice(list.length, offset, length);
+            KeySorts.sort(list, offset, offset + length);
+        }
+
+        /**
+         * Sorts the given array of doubles in place, in the order of {@link Double#compare}:
+         * -0.0 before 0.0, and NaN after everything else. NaNs come out as
+         * {@link Double#NaN} whatever bits they had going in.
+         */
+        public static void sortInPlace(double[] list) {
+            sortInPlace(list, 0, list.length);
+        }
+
+        /**
+         * Sorts {@code length} doubles of the given array starting at {@code offset} in place,
+         * in the same order as {@link #sortInPlace(double[])}.
+         */
+        public static void sortInPlace(double[] list, int offset, int length) {
+            checkSlice(list.length, offset, length);
+            KeySorts.sort(list, offset, offset + length);
+        }
+
+        /**
+         * Sorts the items in place by the int key the given function pulls out of them.
+         * <p>
+         * The key of each item is looked up exactly once. Items with equal keys stay in the
+         * order they were in.
+         * </p>
+         */
+        public static <T> void sortByInt(T[] items, ToIntFunction<? super T> key) {
+            long[] keys = new long[items.length];
+            for (int i = 0; i < keys.length; i++) {
+                // Biased rather than sign-extended, so the top four bytes are always zero and
+                // the radix sort skips their passes even when keys have mixed signs
+                keys[i] = (long) key.applyAsInt(items[i]) - Integer.MIN_VALUE;
+            }
+            KeySorts.sortByKeys(items, 0, items.length, keys);
+        }
+
+        /**
+         * Sorts the items in place by the long key the given function pulls out of them, like
+         * {@link #sortByInt}.
+         */
+        public static <T> void sortByLong(T[] items, ToLongFunction<? super T> key) {
+            long[] keys = new long[items.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = key.applyAsLong(items[i]);
+            }
+            KeySorts.sortByKeys(items, 0, items.length, keys);
+        }
+
+        /**
+         * Sorts the items in place by the double key the given function pulls out of them, like
+         * {@link #sortByInt}, ordering keys the way {@link #sortInPlace(double[])} does. Sorting
+         * students by {@code Student::getTestAverage} is one call.
+         */
+        public static <T> void sortByDouble(T[] items, ToDoubleFunction<? super T> key) {
+            long[] keys = new long[items.length];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = KeySorts.toSortableLong(key.applyAsDouble(items[i]));
+            }
+            KeySorts.sortByKeys(items, 0, items.length, keys);
+        }
+
+        /**
+         * Sorts the list in place by the double key the given function pulls out of its items,
+         * like {@link #sortByDouble(Object[], ToDoubleFunction)}.
+         */
+        public static <T> void sortByDouble(List<T> items, ToDoubleFunction<? super T> key) {
+            @SuppressWarnings("unchecked")
+            T[] array = (T[]) items.toArray();
+            sortByDouble(array, key);
+            ListIterator<T> iterator = items.listIterator();
+            for (T item : array) {
+                iterator.next();
+                iterator.set(item);
+            }
+        }
+
+        /**
+         * Sorts a file of big-endian ints that may be too big to fit in memory into another
+         * file, with an {@link ExternalSorter}'s defaults.
+         */
+        public static void sortFile(Path input, Path output) throws IOException {
+            new ExternalSorter().sort(input, output);
+        }
+
         public static void swap(int[] list, int start, int end) {
             int toSwap = list[start];
             list[start] = list[end];
@@ -94,11 +384,7 @@ public class chalmersw12 {
         }
 
         public static int[] clone(int[] list) {
-            int[] result = new int[list.length];
-            for (int i = 0; i < result.length; i++) {
-                result[i] = list[i];
-            }
-            return result;
+            return list.clone();
         }
 
         @Override
@@ -108,6 +394,2270 @@ public class chalmersw12 {
 
         public interface SortCallback {
             void onUpdate(int[] list, int position, int oldValue, int newValue);
+
+            /**
+             * Called right before sorting with the algorithm that's about to run. For
+             * {@link Algorithm#AUTO} that's whichever algorithm it picked.
+             */
+            default void onStrategySelected(SortAlgorithm algorithm) {
+            }
+
+            /**
+             * Called once the sort is done with everything it counted.
+             */
+            default void onFinished(SortStats stats) {
+            }
+
+            /**
+             * How many writes go by between calls to {@link #onUpdate}. 1 reports every write,
+             * and 0 reports none, which is the cheapest if only the counts are needed. Parallel
+             * sorts count writes separately on each of their threads.
+             */
+            default int getSampleInterval() {
+                return 1;
+            }
+        }
+
+        /**
+         * Watches a sort as it runs. Algorithms report counts in batches, usually once per
+         * pass, and report every single write through {@link #updated}.
+         * <p>
+         * Sorting with {@link #NONE} costs nothing extra: its methods are empty, so once the
+         * JIT inlines them the counting is dead code and gets compiled away.
+         * </p>
+         */
+        public interface SortProbe {
+
+            /**
+             * A probe that ignores everything. What the sorts use when nobody's watching.
+             */
+            SortProbe NONE = new SortProbe() {
+            };
+
+            default void compared(long count) {
+            }
+
+            default void swapped(long count) {
+            }
+
+            /**
+             * Reports items written somewhere other than as half of a swap, including into
+             * scratch buffers.
+             */
+            default void moved(long count) {
+            }
+
+            /**
+             * Reports one pass: an outer loop iteration of the quadratic sorts, a partitioning
+             * step of quicksort, a phase of heapsort, counting sort or radix sort's histogram,
+             * a digit of radix sort, a merge level, or a run found or merged by the adaptive
+             * sort.
+             */
+            default void passed() {
+            }
+
+            /**
+             * Reports a single write, which can be to a scratch buffer rather than the list
+             * being sorted. Only called one item at a time for bulk copies if
+             * {@link #isSampling()}.
+             */
+            default void updated(int[] array, int index, int oldValue, int newValue) {
+            }
+
+            /**
+             * Whether this probe wants {@link #updated} calls for bulk copies, which otherwise
+             * go through {@link System#arraycopy}.
+             */
+            default boolean isSampling() {
+                return false;
+            }
+        }
+
+        /**
+         * A probe that adds up everything a sort does, and passes every
+         * {@link SortCallback#getSampleInterval()}th write on to a callback. Safe to use from
+         * the threads of {@link Algorithm#PARALLEL_MERGE}, though the callback then has to be
+         * too. Each thread counts its own writes towards the next sample so they don't all
+         * fight over one counter, which means the interval is per thread.
+         */
+        public static class SortStats implements SortProbe {
+
+            private final LongAdder comparisons = new LongAdder();
+
+            private final LongAdder swaps = new LongAdder();
+
+            private final LongAdder moves = new LongAdder();
+
+            private final LongAdder passes = new LongAdder();
+
+            // How many more writes each thread makes before its next sample
+            private final ThreadLocal<int[]> writesUntilSample;
+
+            private final SortCallback callback;
+
+            private final int sampleInterval;
+
+            /**
+             * Creates stats that only count.
+             */
+            public SortStats() {
+                this(null);
+            }
+
+            public SortStats(SortCallback callback) {
+                this.callback = callback;
+                this.sampleInterval = callback == null ? 0 : callback.getSampleInterval();
+                this.writesUntilSample = ThreadLocal.withInitial(() -> new int[] {sampleInterval});
+            }
+
+            @Override
+            public void compared(long count) {
+                comparisons.add(count);
+            }
+
+            @Override
+            public void swapped(long count) {
+                swaps.add(count);
+            }
+
+            @Override
+            public void moved(long count) {
+                moves.add(count);
+            }
+
+            @Override
+            public void passed() {
+                passes.increment();
+            }
+
+            @Override
+            public void updated(int[] array, int index, int oldValue, int newValue) {
+                if (sampleInterval <= 0) {
+                    return;
+                }
+                int[] countdown = writesUntilSample.get();
+                if (--countdown[0] == 0) {
+                    countdown[0] = sampleInterval;
+                    callback.onUpdate(array, index, oldValue, newValue);
+                }
+            }
+
+            @Override
+            public boolean isSampling() {
+                return sampleInterval > 0;
+            }
+
+            public long getComparisons() {
+                return comparisons.sum();
+            }
+
+            public long getSwaps() {
+                return swaps.sum();
+            }
+
+            public long getMoves() {
+                return moves.sum();
+            }
+
+            public long getPasses() {
+                return passes.sum();
+            }
+
+            @Override
+            public String toString() {
+                return "comparisons=" + getComparisons() + ", swaps=" + getSwaps()
+                        + ", moves=" + getMoves() + ", passes=" + getPasses();
+            }
+        }
+
+        /**
+         * A way of sorting part of an int array in place.
+         */
+        @FunctionalInterface
+        public interface SortAlgorithm {
+            /**
+             * Sorts the given range of the list from least to greatest.
+             *
+             * @param list The array to sort
+             * @param from The first index to sort, inclusive
+             * @param to   The last index to sort, exclusive
+             */
+            void sort(int[] list, int from, int to);
+
+            /**
+             * Sorts the given range while reporting to the probe. Algorithms that don't know
+             * how to report anything just sort.
+             */
+            default void sort(int[] list, int from, int to, SortProbe probe) {
+                sort(list, from, to);
+            }
+        }
+
+        /**
+         * The sorting algorithms that come with {@link Sorter}.
+         */
+        public enum Algorithm implements SortAlgorithm {
+            /**
+             * Shifts each item left until it's in place. O(n^2), but the fastest for tiny arrays.
+             */
+            INSERTION(IntSorts::insertionSort),
+            /**
+             * Repeatedly moves the smallest remaining item to the front. Always O(n^2).
+             */
+            SELECTION(IntSorts::selectionSort),
+            /**
+             * Yaroslavskiy's dual-pivot quicksort, falling back to heapsort if the recursion gets
+             * suspiciously deep. O(n log n).
+             */
+            QUICK(IntSorts::quickSort),
+            /**
+             * Bottom-up merge sort with one scratch buffer. O(n log n) and stable.
+             */
+            MERGE(IntSorts::mergeSort),
+            /**
+             * In-place heapsort. O(n log n) with no extra memory.
+             */
+            HEAP(IntSorts::heapSort),
+            /**
+             * Counts how many times each value appears. O(n + range), so only worth it when the
+             * items are spread over a small range like grades. Ranges that would need more
+             * counters than items and more than 2^22 of them are radix sorted instead.
+             */
+            COUNTING(IntSorts::countingSort),
+            /**
+             * Least significant digit radix sort on 8-bit digits. Four linear passes, whatever
+             * the values are.
+             */
+            RADIX(IntSorts::radixSort),
+            /**
+             * In-place most significant digit radix sort, also on 8-bit digits. A little slower
+             * than {@link #RADIX} but needs no scratch buffer, only a few kilobytes of counters.
+             * Ranges too small for radix sorting to pay off are quicksorted.
+             */
+            MSD_RADIX(IntSorts::msdRadixSort),
+            /**
+             * Natural merge sort. Finds the runs already in the list, reversing descending
+             * ones, and merges them in powersort order, moving long winning streaks at once, so
+             * nearly sorted input takes close to linear time.
+             */
+            ADAPTIVE(AdaptiveMergeSort::sort),
+            /**
+             * Merge sort split across every core with {@link ParallelMergeSort}'s default
+             * threshold.
+             */
+            PARALLEL_MERGE(new ParallelMergeSort()::sort),
+            /**
+             * Picks one of the others based on the size of the range and how spread out its
+             * values are. May allocate, since the counting, merge and radix sorts all do.
+             */
+            AUTO(IntSorts::autoSort),
+            /**
+             * Like {@link #AUTO} but only picks from the algorithms that don't allocate scratch
+             * space: insertion sort, quicksort and the in-place radix sort.
+             */
+            IN_PLACE(IntSorts::inPlaceSort);
+
+            private final Implementation implementation;
+
+            Algorithm(Implementation implementation) {
+                this.implementation = implementation;
+            }
+
+            @Override
+            public void sort(int[] list, int from, int to) {
+                sort(list, from, to, SortProbe.NONE);
+            }
+
+            @Override
+            public void sort(int[] list, int from, int to, SortProbe probe) {
+                if (from < 0 || from > to || to > list.length) {
+                    throw new ArrayIndexOutOfBoundsException(
+                            "Range [" + from + ", " + to + ") of " + list.length);
+                }
+                implementation.sort(list, from, to, probe);
+            }
+
+            @FunctionalInterface
+            private interface Implementation {
+                void sort(int[] list, int from, int to, SortProbe probe);
+            }
+        }
+    }
+
+    /**
+     * A merge sort that sorts and merges the halves of large ranges in parallel on the common
+     * {@link ForkJoinPool}.
+     * <p>
+     * Ranges are split in half until they're no bigger than the threshold, and those leaves are
+     * sorted with the sequential merge sort, which sorts its smallest runs with a sorting
+     * network. Each level merges back and forth between the list and one scratch buffer
+     * allocated up front, so the only allocation is that buffer. Big merges are split in
+     * parallel too, by binary searching the middle of the larger run in the smaller one, so the
+     * last few levels don't leave every core but one idle.
+     * </p>
+     */
+    public static class ParallelMergeSort implements Sorter.SortAlgorithm {
+
+        /**
+         * The default size at or below which ranges are sorted and merged on one thread.
+         */
+        public static final int DEFAULT_THRESHOLD = 1 << 13;
+
+        private final int threshold;
+
+        public ParallelMergeSort() {
+            this(DEFAULT_THRESHOLD);
+        }
+
+        /**
+         * @param threshold The size at or below which ranges are sorted and merged on one
+         *                  thread. Smaller means more parallelism but more task overhead.
+         */
+        public ParallelMergeSort(int threshold) {
+            if (threshold < 1) {
+                throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+            }
+            this.threshold = threshold;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        @Override
+        public void sort(int[] list, int from, int to) {
+            sort(list, from, to, Sorter.SortProbe.NONE);
+        }
+
+        @Override
+        public void sort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            int size = to - from;
+            if (size <= threshold) {
+                IntSorts.mergeSort(list, from, to, probe);
+                return;
+            }
+            int[] buffer = new int[size];
+            ForkJoinPool.commonPool().invoke(
+                    new SortTask(threshold, list, from, buffer, 0, 0, size, true, probe));
+        }
+
+        /**
+         * Sorts the range {@code [low, high)} of the list, leaving the result in either the list
+         * or the same range of the buffer.
+         */
+        private static class SortTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int threshold;
+
+            private final int[] list;
+
+            private final int listOffset;
+
+            private final int[] buffer;
+
+            private final int bufferOffset;
+
+            private final int low;
+
+            private final int high;
+
+            private final boolean intoList;
+
+            private final Sorter.SortProbe probe;
+
+            SortTask(int threshold, int[] list, int listOffset, int[] buffer, int bufferOffset,
+                     int low, int high, boolean intoList, Sorter.SortProbe probe) {
+                this.threshold = threshold;
+                this.list = list;
+                this.listOffset = listOffset;
+                this.buffer = buffer;
+                this.bufferOffset = bufferOffset;
+                this.low = low;
+                this.high = high;
+                this.intoList = intoList;
+                this.probe = probe;
+            }
+
+            @Override
+            protected void compute() {
+                if (high - low <= threshold) {
+                    IntSorts.mergeSort(list, listOffset + low, listOffset + high,
+                            buffer, bufferOffset + low, probe);
+                    if (!intoList) {
+                        IntSorts.copy(list, listOffset + low, buffer, bufferOffset + low,
+                                high - low, probe);
+                    }
+                    return;
+                }
+                int middle = (low + high) >>> 1;
+                // Sort the halves into the other array so merging them lands in this one
+                boolean halvesIntoList = !intoList;
+                invokeAll(
+                        new SortTask(threshold, list, listOffset, buffer, bufferOffset,
+                                low, middle, halvesIntoList, probe),
+                        new SortTask(threshold, list, listOffset, buffer, bufferOffset,
+                                middle, high, halvesIntoList, probe));
+                if (intoList) {
+                    new MergeTask(threshold, buffer, bufferOffset, list, listOffset,
+                            low, middle, middle, high, low, probe).compute();
+                } else {
+                    new MergeTask(threshold, list, listOffset, buffer, bufferOffset,
+                            low, middle, middle, high, low, probe).compute();
+                }
+                probe.passed();
+            }
+        }
+
+        /**
+         * Merges the sorted ranges {@code [low1, high1)} and {@code [low2, high2)} of the source
+         * into the target starting at {@code index}.
+         */
+        private static class MergeTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int threshold;
+
+            private final int[] source;
+
+            private final int sourceOffset;
+
+            private final int[] target;
+
+            private final int targetOffset;
+
+            private final int low1;
+
+            private final int high1;
+
+            private final int low2;
+
+            private final int high2;
+
+            private final int index;
+
+            private final Sorter.SortProbe probe;
+
+            MergeTask(int threshold, int[] source, int sourceOffset, int[] target,
+                      int targetOffset, int low1, int high1, int low2, int high2, int index,
+                      Sorter.SortProbe probe) {
+                this.threshold = threshold;
+                this.source = source;
+                this.sourceOffset = sourceOffset;
+                this.target = target;
+                this.targetOffset = targetOffset;
+                this.low1 = low1;
+                this.high1 = high1;
+                this.low2 = low2;
+                this.high2 = high2;
+                this.index = index;
+                this.probe = probe;
+            }
+
+            @Override
+            protected void compute() {
+                int size1 = high1 - low1;
+                int size2 = high2 - low2;
+                if (size1 + size2 <= threshold) {
+                    IntSorts.mergeRanges(source, sourceOffset + low1, sourceOffset + high1,
+                            sourceOffset + low2, sourceOffset + high2,
+                            target, targetOffset + index, probe);
+                    return;
+                }
+                if (size1 < size2) {
+                    // Always split the bigger run so both halves shrink
+                    new MergeTask(threshold, source, sourceOffset, target, targetOffset,
+                            low2, high2, low1, high1, index, probe).compute();
+                    return;
+                }
+                int middle1 = (low1 + high1) >>> 1;
+                int pivot = source[sourceOffset + middle1];
+                int middle2 = IntSorts.lowerBound(source, sourceOffset + low2,
+                        sourceOffset + high2, pivot) - sourceOffset;
+                int pivotIndex = index + (middle1 - low1) + (middle2 - low2);
+                probe.compared(32 - Integer.numberOfLeadingZeros(size2));
+                IntSorts.set(target, targetOffset + pivotIndex, pivot, probe);
+                probe.moved(1);
+                invokeAll(new MergeTask(threshold, source, sourceOffset, target, targetOffset,
+                                low1, middle1, low2, middle2, index, probe),
+                        new MergeTask(threshold, source, sourceOffset, target, targetOffset,
+                                middle1 + 1, high1, middle2, high2, pivotIndex + 1, probe));
+            }
+        }
+    }
+
+    /**
+     * Keeps the {@code k} largest or smallest of a stream of ints in O(k) memory, using a
+     * binary heap in a plain int array. Offering n items takes O(n log k), and usually less,
+     * since an item that can't make the cut is turned away with one comparison.
+     */
+    public static class TopK {
+
+        private final int[] heap;
+
+        private final boolean largest;
+
+        private int size;
+
+        private TopK(int k, boolean largest) {
+            if (k < 0) {
+                throw new IllegalArgumentException("k can't be negative: " + k);
+            }
+            this.heap = new int[k];
+            this.largest = largest;
+        }
+
+        /**
+         * Creates a heap that keeps the {@code k} largest items it's offered.
+         */
+        public static TopK largest(int k) {
+            return new TopK(k, true);
+        }
+
+        /**
+         * Creates a heap that keeps the {@code k} smallest items it's offered.
+         */
+        public static TopK smallest(int k) {
+            return new TopK(k, false);
+        }
+
+        /**
+         * Keeps the item if it's one of the best {@code k} so far.
+         */
+        public void offer(int item) {
+            // Smallest mode keeps the complement, which reverses the order with no overflow
+            int key = largest ? item : ~item;
+            if (size < heap.length) {
+                int index = size++;
+                while (index > 0) {
+                    int parent = (index - 1) >>> 1;
+                    if (heap[parent] <= key) {
+                        break;
+                    }
+                    heap[index] = heap[parent];
+                    index = parent;
+                }
+                heap[index] = key;
+            } else if (size > 0 && key > heap[0]) {
+                siftDown(key, size);
+            }
+        }
+
+        /**
+         * Returns how many items are kept, which is {@code k} once that many have been offered.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the kept items, best first: greatest to least for {@link #largest}, least to
+         * greatest for {@link #smallest}.
+         */
+        public int[] toArray() {
+            int[] keys = Arrays.copyOf(heap, size);
+            IntSorts.radixSort(keys, 0, size, Sorter.SortProbe.NONE);
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                int key = keys[size - 1 - i];
+                result[i] = largest ? key : ~key;
+            }
+            return result;
+        }
+
+        /**
+         * Replaces the root with the given key and moves it down to where it belongs.
+         */
+        private void siftDown(int key, int size) {
+            int index = 0;
+            int half = size >>> 1;
+            while (index < half) {
+                int child = 2 * index + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (key <= heap[child]) {
+                    break;
+                }
+                heap[index] = heap[child];
+                index = child;
+            }
+            heap[index] = key;
+        }
+    }
+
+    /**
+     * Sorts a file of ints too big to fit in memory.
+     * <p>
+     * The file is just ints one after another, big-endian, like {@link java.io.DataOutputStream}
+     * writes them. It's sorted in two phases. First, chunks of it small enough to fit in memory
+     * are sorted on several threads at once and each written to its own temporary run file.
+     * Then all the runs are merged into the output in one pass through a loser tree, reading
+     * each run through a small buffer of its own so the merge itself barely touches the heap.
+     * If there are more runs than {@link #MAX_FAN_IN}, groups of them are merged into longer
+     * runs first.
+     * </p>
+     * <p>
+     * Nothing is memory-mapped. A mapping stays open until the garbage collector gets around to
+     * it, and on Windows a file can't be deleted or replaced while it is, which would break
+     * cleaning up the runs and sorting a file into itself.
+     * </p>
+     */
+    public static class ExternalSorter {
+
+        /**
+         * The default number of ints sorted in memory at once, 64 MB worth.
+         */
+        public static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+        /**
+         * The most runs merged at once.
+         */
+        public static final int MAX_FAN_IN = 1024;
+
+        // The biggest chunk whose size in bytes still fits in an int
+        private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE / Integer.BYTES;
+
+        // Bytes read from each run at a time during the merge, 64 MB for a full fan-in
+        private static final int RUN_BUFFER_BYTES = 1 << 16;
+
+        // Bytes read or written at a time when sorting chunks and writing the output
+        private static final int IO_BUFFER_BYTES = 1 << 20;
+
+        private final int chunkSize;
+
+        private final int parallelism;
+
+        private final Path temporaryDirectory;
+
+        /**
+         * Creates a sorter with the default chunk size that keeps its runs next to the output
+         * and sorts as many chunks at once as there are cores and memory for.
+         */
+        public ExternalSorter() {
+            this(DEFAULT_CHUNK_SIZE, defaultParallelism(DEFAULT_CHUNK_SIZE), null);
+        }
+
+        /**
+         * @param chunkSize          How many ints to sort in memory at once. Each thread needs
+         *                           room for about twice that.
+         * @param parallelism        How many chunks to sort at once
+         * @param temporaryDirectory Where to put the run files, or null for the output's
+         *                           directory
+         */
+        public ExternalSorter(int chunkSize, int parallelism, Path temporaryDirectory) {
+            if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Chunk size out of range: " + chunkSize);
+            }
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+            }
+            this.chunkSize = chunkSize;
+            this.parallelism = parallelism;
+            this.temporaryDirectory = temporaryDirectory;
+        }
+
+        private static int defaultParallelism(int chunkSize) {
+            // Chunks are sorted in place, so each thread needs its chunk and some headroom
+            long perThread = 2L * chunkSize * Integer.BYTES;
+            long fits = Runtime.getRuntime().maxMemory() / perThread;
+            return (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), fits));
+        }
+
+        /**
+         * Sorts the ints in the input file into the output file, replacing anything already
+         * there. The input and output can be the same file.
+         */
+        public void sort(Path input, Path output) throws IOException {
+            Path directory = temporaryDirectory;
+            if (directory == null) {
+                directory = output.toAbsolutePath().getParent();
+            }
+            Path runDirectory = Files.createTempDirectory(directory, "sort-runs");
+            Throwable failure = null;
+            try {
+                List<Path> runs = writeRuns(input, runDirectory);
+                while (runs.size() > MAX_FAN_IN) {
+                    List<Path> merged = new ArrayList<>();
+                    for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                        Path run = Files.createTempFile(runDirectory, "run", ".bin");
+                        List<Path> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+                        merge(group, run);
+                        for (Path done : group) {
+                            Files.delete(done);
+                        }
+                        merged.add(run);
+                    }
+                    runs = merged;
+                }
+                if (runs.size() == 1) {
+                    Files.move(runs.get(0), output, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    merge(runs, output);
+                }
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                deleteRuns(runDirectory, failure);
+            }
+        }
+
+        /**
+         * Deletes the run directory and anything left in it. If the sort already failed, any
+         * trouble deleting is attached to that failure instead of replacing it.
+         */
+        private static void deleteRuns(Path runDirectory, Throwable failure) throws IOException {
+            IOException cleanup = null;
+            try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(runDirectory)) {
+                for (Path leftover : leftovers) {
+                    try {
+                        Files.delete(leftover);
+                    } catch (IOException e) {
+                        cleanup = collect(cleanup, e);
+                    }
+                }
+            } catch (IOException e) {
+                cleanup = collect(cleanup, e);
+            }
+            try {
+                Files.delete(runDirectory);
+            } catch (IOException e) {
+                cleanup = collect(cleanup, e);
+            }
+            report(cleanup, failure);
+        }
+
+        /**
+         * Returns the first of the exceptions, with the second added to it as suppressed.
+         */
+        private static IOException collect(IOException first, IOException next) {
+            if (first == null) {
+                return next;
+            }
+            first.addSuppressed(next);
+            return first;
+        }
+
+        /**
+         * Throws the cleanup exception, unless there's already a failure to add it to.
+         */
+        private static void report(IOException cleanup, Throwable failure) throws IOException {
+            if (cleanup == null) {
+                return;
+            }
+            if (failure != null) {
+                failure.addSuppressed(cleanup);
+            } else {
+                throw cleanup;
+            }
+        }
+
+        /**
+         * Sorts the input a chunk at a time on {@link #parallelism} threads, writing each chunk
+         * to its own run file.
+         *
+         * @return The run files in the order of their chunks
+         */
+        private List<Path> writeRuns(Path input, Path runDirectory) throws IOException {
+            try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+                long bytes = channel.size();
+                if (bytes % Integer.BYTES != 0) {
+                    throw new IOException(input + " isn't a whole number of ints");
+                }
+                long size = bytes / Integer.BYTES;
+                int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+                Path[] runs = new Path[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    runs[i] = runDirectory.resolve("chunk" + i + ".bin");
+                }
+                if (chunkCount == 0) {
+                    return new ArrayList<>(Collections.singletonList(
+                            Files.createFile(runDirectory.resolve("empty.bin"))));
+                }
+                AtomicInteger nextChunk = new AtomicInteger();
+                List<Callable<Void>> workers = new ArrayList<>();
+                for (int i = 0; i < Math.min(parallelism, chunkCount); i++) {
+                    workers.add(() -> {
+                        // Each worker reuses one chunk's worth of memory for all its chunks,
+                        // which the in-place sort doesn't add a scratch buffer to
+                        int[] items = new int[(int) Math.min(chunkSize, size)];
+                        ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+                        for (int chunk; (chunk = nextChunk.getAndIncrement()) < chunkCount; ) {
+                            long start = (long) chunk * chunkSize;
+                            int length = (int) Math.min(chunkSize, size - start);
+                            readChunk(channel, start, items, length, buffer);
+                            Sorter.sortInPlace(items, 0, length, Sorter.Algorithm.IN_PLACE);
+                            writeRun(runs[chunk], items, length, buffer);
+                        }
+                        return null;
+                    });
+                }
+                ForkJoinPool pool = new ForkJoinPool(workers.size());
+                try {
+                    for (Future<Void> worker : pool.invokeAll(workers)) {
+                        worker.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while sorting chunks");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                } finally {
+                    pool.shutdownNow();
+                }
+                return new ArrayList<>(Arrays.asList(runs));
+            }
+        }
+
+        /**
+         * Reads {@code length} ints from the channel, starting at int {@code start}, into the
+         * front of the array a buffer at a time. Positional reads leave the channel's own
+         * position alone, so the workers can all read through one channel.
+         */
+        private static void readChunk(FileChannel channel, long start, int[] items, int length,
+                                      ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            IntBuffer ints = buffer.asIntBuffer();
+            long position = start * Integer.BYTES;
+            for (int done = 0; done < length; ) {
+                int count = Math.min(ints.capacity(), length - done);
+                buffer.clear();
+                buffer.limit(count * Integer.BYTES);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("Input ended partway through a chunk");
+                    }
+                }
+                ints.clear();
+                ints.get(items, done, count);
+                done += count;
+                position += (long) count * Integer.BYTES;
+            }
+        }
+
+        private static void writeRun(Path run, int[] items, int length, ByteBuffer buffer)
+                throws IOException {
+            try (FileChannel channel = FileChannel.open(run, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                buffer.clear();
+                IntBuffer ints = buffer.asIntBuffer();
+                for (int done = 0; done < length; ) {
+                    int count = Math.min(ints.capacity(), length - done);
+                    ints.clear();
+                    ints.put(items, done, count);
+                    buffer.clear();
+                    buffer.limit(count * Integer.BYTES);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    done += count;
+                }
+            }
+        }
+
+        /**
+         * Merges the sorted run files into the output with a loser tree.
+         */
+        private static void merge(List<Path> runs, Path output) throws IOException {
+            RunReader[] readers = new RunReader[runs.size()];
+            Throwable failure = null;
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int i = 0; i < readers.length; i++) {
+                    readers[i] = new RunReader(FileChannel.open(runs.get(i),
+                            StandardOpenOption.READ));
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES);
+                LoserTree tree = new LoserTree(readers);
+                for (long item; (item = tree.next()) != RunReader.DONE; ) {
+                    if (!buffer.hasRemaining()) {
+                        writeFully(out, buffer);
+                    }
+                    buffer.putInt((int) item);
+                }
+                writeFully(out, buffer);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                IOException cleanup = null;
+                for (RunReader reader : readers) {
+                    if (reader != null) {
+                        try {
+                            reader.channel.close();
+                        } catch (IOException e) {
+                            cleanup = collect(cleanup, e);
+                        }
+                    }
+                }
+                report(cleanup, failure);
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer)
+                throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Reads a run file a buffer at a time.
+         */
+        private static class RunReader {
+
+            // Past every int, so finished runs lose to everything
+            static final long DONE = Long.MAX_VALUE;
+
+            final FileChannel channel;
+
+            private final long size;
+
+            // Where in the file the next refill reads from
+            private long position;
+
+            private final ByteBuffer buffer;
+
+            RunReader(FileChannel channel) throws IOException {
+                this.channel = channel;
+                this.size = channel.size();
+                // Short runs only get as much buffer as they need
+                buffer = ByteBuffer.allocate((int) Math.min(RUN_BUFFER_BYTES, size));
+                buffer.limit(0);
+            }
+
+            /**
+             * Returns the next int in the run, or {@link #DONE} if there aren't any left.
+             */
+            long next() {
+                if (!buffer.hasRemaining()) {
+                    if (position >= size) {
+                        return DONE;
+                    }
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                    try {
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, position + buffer.position()) < 0) {
+                                throw new EOFException("Run ended early");
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    position += buffer.limit();
+                    buffer.flip();
+                }
+                return buffer.getInt();
+            }
+        }
+
+        /**
+         * A tournament tree that repeatedly picks the smallest head among k runs in log k
+         * comparisons. Each internal node remembers the run that lost the match there, so
+         * replacing the winner only replays the matches on its path to the root.
+         */
+        private static class LoserTree {
+
+            private final RunReader[] runs;
+
+            private final long[] heads;
+
+            // tree[0] is the overall winner, tree[1 ... k - 1] the losers at each node
+            private final int[] tree;
+
+            LoserTree(RunReader[] runs) {
+                this.runs = runs;
+                this.heads = new long[runs.length];
+                this.tree = new int[Math.max(runs.length, 1)];
+                Arrays.fill(tree, -1); // -1 beats everything until every run has played
+                for (int i = runs.length - 1; i >= 0; i--) {
+                    heads[i] = runs[i].next();
+                    replay(i);
+                }
+            }
+
+            /**
+             * Returns the smallest head and advances its run, or returns {@link RunReader#DONE}
+             * once every run is used up.
+             */
+            long next() {
+                if (runs.length == 0) {
+                    return RunReader.DONE;
+                }
+                int winner = tree[0];
+                long item = heads[winner];
+                if (item != RunReader.DONE) {
+                    heads[winner] = runs[winner].next();
+                    replay(winner);
+                }
+                return item;
+            }
+
+            private void replay(int run) {
+                int winner = run;
+                for (int node = (run + runs.length) >>> 1; node > 0; node >>>= 1) {
+                    int opponent = tree[node];
+                    if (winner != -1 && (opponent == -1 || heads[opponent] < heads[winner])) {
+                        tree[node] = winner;
+                        winner = opponent;
+                    }
+                }
+                tree[0] = winner;
+            }
+        }
+    }
+
+    /**
+     * The sorting algorithms behind {@link Sorter.Algorithm}. Every one sorts the range
+     * {@code [from, to)} of the given array in place.
+     */
+    static class IntSorts {
+
+        // Ranges this small are faster to sort directly than to split up
+        static final int INSERTION_THRESHOLD = 47;
+
+        // The length of the runs bottom-up merge sort sorts with a network before merging
+        private static final int MERGE_RUN = 32;
+
+        private IntSorts() {
+        }
+
+        // Ranges at least this big are radix sorted, since four linear passes beat n log n
+        static final int RADIX_THRESHOLD = 1 << 12;
+
+        // The most counters counting sort will allocate, 16 MB worth
+        private static final int MAX_COUNTING_RANGE = 1 << 22;
+
+        // Ranges whose runs average at least this long are merged with the adaptive sort
+        private static final int MIN_AVERAGE_RUN = 256;
+
+        static void autoSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            choose(list, from, to).sort(list, from, to, probe);
+        }
+
+        /**
+         * Returns the algorithm that should sort the given range fastest.
+         * <p>
+         * Tiny ranges are insertion sorted. Otherwise a min and max scan checks whether the
+         * values are packed tightly enough to count, and a quick run count, which gives up as
+         * soon as the runs get short, checks whether the range is nearly sorted already. Anything
+         * else is radix sorted if it's big and quicksorted if it isn't.
+         * </p>
+         */
+        static Sorter.Algorithm choose(int[] list, int from, int to) {
+            int size = to - from;
+            if (size < INSERTION_THRESHOLD) {
+                return Sorter.Algorithm.INSERTION;
+            }
+            int min = list[from];
+            int max = min;
+            for (int i = from + 1; i < to; i++) {
+                int item = list[i];
+                if (item < min) {
+                    min = item;
+                } else if (item > max) {
+                    max = item;
+                }
+            }
+            long range = (long) max - min + 1;
+            if (range <= size && range <= MAX_COUNTING_RANGE) {
+                return Sorter.Algorithm.COUNTING;
+            }
+            int maxRuns = size / MIN_AVERAGE_RUN + 1;
+            if (countRuns(list, from, to, maxRuns) <= maxRuns) {
+                return Sorter.Algorithm.ADAPTIVE;
+            }
+            return size >= RADIX_THRESHOLD ? Sorter.Algorithm.RADIX : Sorter.Algorithm.QUICK;
+        }
+
+        /**
+         * Counts the ascending and strictly descending runs in the range, stopping early once
+         * there are more than the given limit.
+         */
+        static int countRuns(int[] list, int from, int to, int limit) {
+            int runs = 0;
+            for (int i = from; i < to && runs <= limit; runs++) {
+                int j = i + 1;
+                if (j < to && list[j] < list[i]) {
+                    while (j < to && list[j] < list[j - 1]) {
+                        j++;
+                    }
+                } else {
+                    while (j < to && list[j] >= list[j - 1]) {
+                        j++;
+                    }
+                }
+                i = j;
+            }
+            return runs;
+        }
+
+        static void countingSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            if (to - from < 2) {
+                return;
+            }
+            int min = list[from];
+            int max = min;
+            for (int i = from + 1; i < to; i++) {
+                min = Math.min(min, list[i]);
+                max = Math.max(max, list[i]);
+            }
+            long range = (long) max - min + 1;
+            if (range > MAX_COUNTING_RANGE && range > to - from) {
+                radixSort(list, from, to, probe); // Way too many counters, and slower anyway
+            } else {
+                countingSort(list, from, to, min, max, probe);
+            }
+        }
+
+        /**
+         * Counting sorts a range whose items are all between {@code min} and {@code max}.
+         */
+        private static void countingSort(int[] list, int from, int to, int min, int max,
+                                         Sorter.SortProbe probe) {
+            int[] counts = new int[max - min + 1];
+            for (int i = from; i < to; i++) {
+                counts[list[i] - min]++;
+            }
+            probe.passed();
+            int k = from;
+            for (int value = 0; value < counts.length; value++) {
+                for (int count = counts[value]; count > 0; count--) {
+                    set(list, k++, value + min, probe);
+                }
+            }
+            probe.moved(to - from);
+            probe.passed();
+        }
+
+        static void radixSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            int size = to - from;
+            if (size < 2) {
+                return;
+            }
+            // Build every digit's histogram in one pass. Flipping the sign bit makes the top
+            // digit order negative numbers before positive ones.
+            int[][] counts = new int[4][257];
+            for (int i = from; i < to; i++) {
+                int item = list[i] ^ Integer.MIN_VALUE;
+                counts[0][(item & 0xFF) + 1]++;
+                counts[1][((item >>> 8) & 0xFF) + 1]++;
+                counts[2][((item >>> 16) & 0xFF) + 1]++;
+                counts[3][(item >>> 24) + 1]++;
+            }
+            probe.passed();
+            int[] source = list;
+            int sourceOffset = from;
+            int[] target = new int[size];
+            int targetOffset = 0;
+            for (int digit = 0; digit < 4; digit++) {
+                int[] starts = counts[digit];
+                int shift = digit * 8;
+                if (starts[((source[sourceOffset] ^ Integer.MIN_VALUE) >>> shift & 0xFF) + 1]
+                        == size) {
+                    continue; // Every item has the same digit here, so this pass changes nothing
+                }
+                for (int i = 1; i < starts.length; i++) {
+                    starts[i] += starts[i - 1];
+                }
+                for (int i = sourceOffset; i < sourceOffset + size; i++) {
+                    int item = source[i];
+                    int bucket = (item ^ Integer.MIN_VALUE) >>> shift & 0xFF;
+                    set(target, targetOffset + starts[bucket]++, item, probe);
+                }
+                probe.moved(size);
+                probe.passed();
+                int[] swapArray = source;
+                source = target;
+                target = swapArray;
+                int swapOffset = sourceOffset;
+                sourceOffset = targetOffset;
+                targetOffset = swapOffset;
+            }
+            if (source != list) {
+                copy(source, sourceOffset, list, from, size, probe);
+            }
+        }
+
+        /**
+         * Returns the fastest algorithm for the range that sorts it without allocating scratch
+         * space proportional to it: insertion sort for tiny ranges, the in-place MSD radix sort
+         * for big ones and quicksort for everything in between.
+         */
+        static Sorter.Algorithm chooseInPlace(int[] list, int from, int to) {
+            int size = to - from;
+            if (size < INSERTION_THRESHOLD) {
+                return Sorter.Algorithm.INSERTION;
+            }
+            return size >= RADIX_THRESHOLD ? Sorter.Algorithm.MSD_RADIX : Sorter.Algorithm.QUICK;
+        }
+
+        static void inPlaceSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            chooseInPlace(list, from, to).sort(list, from, to, probe);
+        }
+
+        /**
+         * American flag sort: a most significant digit radix sort that moves every item straight
+         * into its bucket by following cycles, so the only extra memory is a few kilobytes of
+         * counters for the four digit levels.
+         */
+        static void msdRadixSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            if (to - from < RADIX_THRESHOLD) {
+                quickSort(list, from, to, probe);
+                return;
+            }
+            msdRadixSort(list, from, to, 24, new int[4][257], new int[4][256], probe);
+        }
+
+        private static void msdRadixSort(int[] list, int from, int to, int shift,
+                                         int[][] bucketStarts, int[][] bucketHeads,
+                                         Sorter.SortProbe probe) {
+            int size = to - from;
+            int level = 3 - shift / 8;
+            int[] starts = bucketStarts[level];
+            Arrays.fill(starts, 0);
+            for (int i = from; i < to; i++) {
+                starts[msdDigit(list[i], shift) + 1]++;
+            }
+            probe.passed();
+            if (starts[msdDigit(list[from], shift) + 1] != size) {
+                for (int i = 1; i < starts.length; i++) {
+                    starts[i] += starts[i - 1];
+                }
+                int[] heads = bucketHeads[level];
+                System.arraycopy(starts, 0, heads, 0, heads.length);
+                long moves = 0;
+                for (int bucket = 0; bucket < heads.length; bucket++) {
+                    int end = from + starts[bucket + 1];
+                    while (from + heads[bucket] < end) {
+                        // Carry the item to its bucket, picking up whatever was there, until
+                        // something that belongs in this bucket turns up
+                        int item = list[from + heads[bucket]];
+                        int digit = msdDigit(item, shift);
+                        while (digit != bucket) {
+                            int target = from + heads[digit]++;
+                            int displaced = list[target];
+                            set(list, target, item, probe);
+                            moves++;
+                            item = displaced;
+                            digit = msdDigit(item, shift);
+                        }
+                        set(list, from + heads[bucket]++, item, probe);
+                        moves++;
+                    }
+                }
+                probe.moved(moves);
+                probe.passed();
+            } else {
+                // Every item has the same digit here, so the whole range is one bucket
+                Arrays.fill(starts, 1, starts.length, size);
+                starts[0] = 0;
+            }
+            if (shift == 0) {
+                return;
+            }
+            for (int bucket = 0; bucket < 256; bucket++) {
+                int low = from + starts[bucket];
+                int high = from + starts[bucket + 1];
+                if (high - low >= RADIX_THRESHOLD) {
+                    msdRadixSort(list, low, high, shift - 8, bucketStarts, bucketHeads, probe);
+                } else if (high - low > 1) {
+                    quickSort(list, low, high, probe);
+                }
+            }
+        }
+
+        private static int msdDigit(int item, int shift) {
+            return (item ^ Integer.MIN_VALUE) >>> shift & 0xFF;
+        }
+
+        static void insertionSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            long comparisons = 0;
+            long moves = 0;
+            for (int i = from + 1; i < to; i++) {
+                int item = list[i];
+                int j = i - 1;
+                while (j >= from) {
+                    comparisons++;
+                    if (list[j] <= item) {
+                        break;
+                    }
+                    set(list, j + 1, list[j], probe);
+                    j--;
+                }
+                if (j + 1 != i) {
+                    set(list, j + 1, item, probe);
+                    moves += i - j;
+                }
+                probe.passed();
+            }
+            probe.compared(comparisons);
+            probe.moved(moves);
+        }
+
+        static void selectionSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            for (int i = from; i < to - 1; i++) {
+                int smallest = i;
+                for (int j = i + 1; j < to; j++) {
+                    if (list[j] < list[smallest]) {
+                        smallest = j;
+                    }
+                }
+                swap(list, i, smallest, probe);
+                probe.compared(to - i - 1);
+                probe.passed();
+            }
+        }
+
+        static void heapSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            int size = to - from;
+            long comparisons = 0;
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                comparisons += siftDown(list, from, i, size, probe);
+            }
+            probe.passed();
+            for (int end = size - 1; end > 0; end--) {
+                swap(list, from, from + end, probe);
+                comparisons += siftDown(list, from, 0, end, probe);
+            }
+            probe.compared(comparisons);
+            probe.passed();
+        }
+
+        /**
+         * Moves the item at the given heap index down until it's larger than both children.
+         *
+         * @return How many comparisons that took
+         */
+        private static int siftDown(int[] list, int base, int index, int size,
+                                    Sorter.SortProbe probe) {
+            int item = list[base + index];
+            int start = index;
+            int half = size >>> 1;
+            int comparisons = 0;
+            while (index < half) {
+                int child = 2 * index + 1;
+                if (child + 1 < size) {
+                    comparisons++;
+                    if (list[base + child + 1] > list[base + child]) {
+                        child++;
+                    }
+                }
+                comparisons++;
+                if (item >= list[base + child]) {
+                    break;
+                }
+                set(list, base + index, list[base + child], probe);
+                probe.moved(1);
+                index = child;
+            }
+            if (index != start) {
+                set(list, base + index, item, probe);
+                probe.moved(1);
+            }
+            return comparisons;
+        }
+
+        static void quickSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            int size = to - from;
+            // Anything deeper than this is a sign of a pathological input
+            int depthLimit = 3 * (32 - Integer.numberOfLeadingZeros(size));
+            quickSort(list, from, to, depthLimit, probe);
+        }
+
+        private static void quickSort(int[] list, int from, int to, int depth,
+                                      Sorter.SortProbe probe) {
+            while (to - from > INSERTION_THRESHOLD) {
+                if (depth-- == 0) {
+                    heapSort(list, from, to, probe);
+                    return;
+                }
+                int last = to - 1;
+                // Take the pivots from the 2nd and 4th of five evenly spaced samples
+                int seventh = (to - from) / 7;
+                int e3 = (from + last) >>> 1;
+                int e2 = e3 - seventh;
+                int e1 = e2 - seventh;
+                int e4 = e3 + seventh;
+                int e5 = e4 + seventh;
+                sortFive(list, e1, e2, e3, e4, e5, probe);
+                int pivot1 = list[e2];
+                int pivot2 = list[e4];
+                set(list, e2, list[from], probe);
+                set(list, e4, list[last], probe);
+
+                long comparisons = 0;
+                long swaps = 0;
+                int less = from + 1;
+                int great = last - 1;
+                for (int k = less; k <= great; k++) {
+                    int item = list[k];
+                    comparisons++;
+                    if (item < pivot1) {
+                        set(list, k, list[less], probe);
+                        set(list, less++, item, probe);
+                        swaps++;
+                    } else if (item > pivot2) {
+                        comparisons++;
+                        while (list[great] > pivot2 && k < great) {
+                            comparisons++;
+                            great--;
+                        }
+                        set(list, k, list[great], probe);
+                        set(list, great--, item, probe);
+                        swaps++;
+                        item = list[k];
+                        comparisons++;
+                        if (item < pivot1) {
+                            set(list, k, list[less], probe);
+                            set(list, less++, item, probe);
+                            swaps++;
+                        }
+                    } else {
+                        comparisons++;
+                    }
+                }
+                set(list, from, list[less - 1], probe);
+                set(list, less - 1, pivot1, probe);
+                set(list, last, list[great + 1], probe);
+                set(list, great + 1, pivot2, probe);
+                probe.compared(comparisons);
+                probe.swapped(swaps);
+                probe.moved(6);
+                probe.passed();
+
+                quickSort(list, from, less - 1, depth, probe);
+                quickSort(list, great + 2, to, depth, probe);
+                if (pivot1 == pivot2) {
+                    return; // Everything in the middle equals the pivots
+                }
+                if (great + 1 - less > (to - from) / 2) {
+                    // A big middle usually means lots of copies of the pivots, so move those
+                    // out of the way before sorting it
+                    comparisons = 0;
+                    swaps = 0;
+                    for (int k = less; k <= great; k++) {
+                        int item = list[k];
+                        comparisons++;
+                        if (item == pivot1) {
+                            set(list, k, list[less], probe);
+                            set(list, less++, item, probe);
+                            swaps++;
+                        } else if (item == pivot2) {
+                            comparisons++;
+                            while (list[great] == pivot2 && k < great) {
+                                comparisons++;
+                                great--;
+                            }
+                            set(list, k, list[great], probe);
+                            set(list, great--, item, probe);
+                            swaps++;
+                            item = list[k];
+                            comparisons++;
+                            if (item == pivot1) {
+                                set(list, k, list[less], probe);
+                                set(list, less++, item, probe);
+                                swaps++;
+                            }
+                        } else {
+                            comparisons++;
+                        }
+                    }
+                    probe.compared(comparisons);
+                    probe.swapped(swaps);
+                    probe.passed();
+                }
+                from = less;
+                to = great + 1;
+            }
+            SortingNetwork.sort(list, from, to, probe);
+        }
+
+        /**
+         * Sorts the five items at the given indexes among themselves with a nine-comparator
+         * sorting network, swapping them where they are.
+         */
+        private static void sortFive(int[] list, int e1, int e2, int e3, int e4, int e5,
+                                     Sorter.SortProbe probe) {
+            orderPair(list, e1, e2, probe);
+            orderPair(list, e4, e5, probe);
+            orderPair(list, e3, e5, probe);
+            orderPair(list, e3, e4, probe);
+            orderPair(list, e2, e5, probe);
+            orderPair(list, e1, e4, probe);
+            orderPair(list, e1, e3, probe);
+            orderPair(list, e2, e4, probe);
+            orderPair(list, e2, e3, probe);
+            probe.compared(9);
+        }
+
+        private static void orderPair(int[] list, int i, int j, Sorter.SortProbe probe) {
+            if (list[i] > list[j]) {
+                swap(list, i, j, probe);
+            }
+        }
+
+        static void mergeSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            if (to - from > MERGE_RUN) {
+                mergeSort(list, from, to, new int[to - from], 0, probe);
+            } else {
+                SortingNetwork.sort(list, from, to, probe);
+            }
+        }
+
+        /**
+         * Merge sorts the range using the given buffer, which must have room for the whole
+         * range starting at {@code bufferOffset}, as scratch space.
+         */
+        static void mergeSort(int[] list, int from, int to, int[] buffer, int bufferOffset,
+                              Sorter.SortProbe probe) {
+            int size = to - from;
+            for (int i = from; i < to; i += MERGE_RUN) {
+                SortingNetwork.sort(list, i, Math.min(i + MERGE_RUN, to), probe);
+            }
+            if (size <= MERGE_RUN) {
+                return;
+            }
+            // Merge back and forth between the list and the buffer, doubling the run length
+            int[] source = list;
+            int sourceOffset = from;
+            int[] target = buffer;
+            int targetOffset = bufferOffset;
+            for (long width = MERGE_RUN; width < size; width *= 2) {
+                for (long left = 0; left < size; left += 2 * width) {
+                    int middle = (int) Math.min(left + width, size);
+                    int right = (int) Math.min(left + 2 * width, size);
+                    merge(source, sourceOffset, target, targetOffset, (int) left, middle, right,
+                            probe);
+                }
+                probe.passed();
+                int[] swapArray = source;
+                source = target;
+                target = swapArray;
+                int swapOffset = sourceOffset;
+                sourceOffset = targetOffset;
+                targetOffset = swapOffset;
+            }
+            if (source != list) {
+                copy(source, sourceOffset, list, from, size, probe);
+            }
+        }
+
+        /**
+         * Merges the sorted runs {@code [left, middle)} and {@code [middle, right)} of the
+         * source into the same positions of the target.
+         */
+        static void merge(int[] source, int sourceOffset, int[] target, int targetOffset,
+                          int left, int middle, int right, Sorter.SortProbe probe) {
+            int i = sourceOffset + left;
+            int iEnd = sourceOffset + middle;
+            int j = iEnd;
+            int jEnd = sourceOffset + right;
+            int k = targetOffset + left;
+            if (i < iEnd && j < jEnd && source[iEnd - 1] <= source[j]) {
+                // Already in order
+                probe.compared(1);
+                copy(source, i, target, k, right - left, probe);
+                return;
+            }
+            mergeRanges(source, i, iEnd, j, jEnd, target, k, probe);
+        }
+
+        /**
+         * Merges the sorted ranges {@code [i, iEnd)} and {@code [j, jEnd)} of the source into
+         * the target starting at index {@code k}.
+         */
+        static void mergeRanges(int[] source, int i, int iEnd, int j, int jEnd, int[] target,
+                                int k, Sorter.SortProbe probe) {
+            int start = k;
+            while (i < iEnd && j < jEnd) {
+                // Pick with arithmetic rather than a branch, since on random data which run
+                // wins is a coin flip the branch predictor can't learn
+                int left = source[i];
+                int right = source[j];
+                int takeRight = right < left ? 1 : 0;
+                set(target, k++, Math.min(left, right), probe);
+                j += takeRight;
+                i += 1 - takeRight;
+            }
+            probe.compared(k - start);
+            probe.moved(k - start);
+            copy(source, i, target, k, iEnd - i, probe);
+            copy(source, j, target, k + iEnd - i, jEnd - j, probe);
+        }
+
+        /**
+         * Rearranges the range so the item at index {@code k} is the one that would be there if
+         * it were sorted, with nothing greater before it and nothing less after it.
+         * <p>
+         * Introselect: quickselect with a median of three pivot and a three-way partition, so
+         * runs of equal items finish right away, that gives up and heapsorts whatever's left if
+         * it takes too many rounds to narrow down. That keeps it linear on average and
+         * O(n log n) at worst.
+         * </p>
+         */
+        static void select(int[] list, int from, int to, int k) {
+            int depth = 2 * (32 - Integer.numberOfLeadingZeros(to - from));
+            while (to - from > INSERTION_THRESHOLD) {
+                if (depth-- == 0) {
+                    heapSort(list, from, to, Sorter.SortProbe.NONE);
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                int pivot = medianOfThree(list[from], list[middle], list[to - 1]);
+                // [from, less) < pivot, [less, i) == pivot, (great, to) > pivot
+                int less = from;
+                int great = to - 1;
+                for (int i = from; i <= great; ) {
+                    int item = list[i];
+                    if (item < pivot) {
+                        Sorter.swap(list, less++, i++);
+                    } else if (item > pivot) {
+                        Sorter.swap(list, i, great--);
+                    } else {
+                        i++;
+                    }
+                }
+                if (k < less) {
+                    to = less;
+                } else if (k > great) {
+                    from = great + 1;
+                } else {
+                    return;
+                }
+            }
+            insertionSort(list, from, to, Sorter.SortProbe.NONE);
+        }
+
+        private static int medianOfThree(int a, int b, int c) {
+            return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+        }
+
+        /**
+         * Returns the first index in the sorted range whose item is at least the given key.
+         */
+        static int lowerBound(int[] list, int from, int to, int key) {
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (list[middle] < key) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return from;
+        }
+
+        /**
+         * Writes the value into the array and reports it to the probe.
+         */
+        static void set(int[] array, int index, int value, Sorter.SortProbe probe) {
+            int oldValue = array[index];
+            array[index] = value;
+            probe.updated(array, index, oldValue, value);
+        }
+
+        /**
+         * Swaps two items of the list and reports both writes and the swap to the probe.
+         */
+        static void swap(int[] list, int i, int j, Sorter.SortProbe probe) {
+            int item = list[i];
+            set(list, i, list[j], probe);
+            set(list, j, item, probe);
+            probe.swapped(1);
+        }
+
+        /**
+         * Copies a range between arrays and reports the moves to the probe, one write at a time
+         * if it's sampling updates and with {@link System#arraycopy} if it isn't.
+         */
+        static void copy(int[] source, int sourceIndex, int[] target, int targetIndex,
+                         int length, Sorter.SortProbe probe) {
+            if (probe.isSampling()) {
+                if (source == target && sourceIndex < targetIndex) {
+                    for (int i = length - 1; i >= 0; i--) {
+                        set(target, targetIndex + i, source[sourceIndex + i], probe);
+                    }
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        set(target, targetIndex + i, source[sourceIndex + i], probe);
+                    }
+                }
+            } else {
+                System.arraycopy(source, sourceIndex, target, targetIndex, length);
+            }
+            probe.moved(length);
+        }
+    }
+
+    /**
+     * Branchless sorting networks for ranges of up to {@link #MAX_SIZE} items, the leaf sort
+     * under quicksort and merge sort.
+     * <p>
+     * A network is a fixed list of compare-exchanges, Batcher's odd-even merge sort here, that
+     * sorts any input. Each compare-exchange is a min and a max, which the JIT compiles to
+     * conditional moves instead of branches, so unlike insertion sort there's nothing for the
+     * branch predictor to get wrong on random data. The network for a range shorter than a
+     * power of two is the full network with every compare-exchange that reaches past the end
+     * dropped, which is the same as padding the range with items bigger than everything.
+     * </p>
+     */
+    static final class SortingNetwork {
+
+        /**
+         * The biggest range there's a network for.
+         */
+        static final int MAX_SIZE = 64;
+
+        // NETWORKS[n] holds the index pairs to compare-exchange, in order, to sort n items
+        private static final int[][] NETWORKS = new int[MAX_SIZE + 1][];
+
+        static {
+            int[] full = new int[2 * MAX_SIZE * MAX_SIZE];
+            int length = 0;
+            for (int p = 1; p < MAX_SIZE; p <<= 1) {
+                for (int k = p; k >= 1; k >>= 1) {
+                    for (int j = k % p; j + k < MAX_SIZE; j += 2 * k) {
+                        for (int i = 0; i < k && i + j + k < MAX_SIZE; i++) {
+                            if ((i + j) / (2 * p) == (i + j + k) / (2 * p)) {
+                                full[length++] = i + j;
+                                full[length++] = i + j + k;
+                            }
+                        }
+                    }
+                }
+            }
+            for (int size = 0; size <= MAX_SIZE; size++) {
+                int[] network = new int[length];
+                int used = 0;
+                for (int c = 0; c < length; c += 2) {
+                    if (full[c + 1] < size) {
+                        network[used++] = full[c];
+                        network[used++] = full[c + 1];
+                    }
+                }
+                NETWORKS[size] = Arrays.copyOf(network, used);
+            }
+        }
+
+        private SortingNetwork() {
+        }
+
+        static void sort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            int[] network = NETWORKS[to - from];
+            long swaps = 0;
+            for (int c = 0; c < network.length; c += 2) {
+                int i = from + network[c];
+                int j = from + network[c + 1];
+                int a = list[i];
+                int b = list[j];
+                list[i] = Math.min(a, b);
+                list[j] = Math.max(a, b);
+                if (a > b) {
+                    // Dead code unless someone's watching, so it doesn't bring the branch back
+                    probe.updated(list, i, a, b);
+                    probe.updated(list, j, b, a);
+                    swaps++;
+                }
+            }
+            probe.compared(network.length / 2);
+            probe.swapped(swaps);
+            probe.passed();
+        }
+    }
+
+    /**
+     * Sorts for longs and doubles, and for objects by a primitive key, all built on a stable
+     * least significant digit radix sort over 64-bit keys.
+     * <p>
+     * Doubles are sorted as longs: flipping every bit but the sign of negative numbers' bit
+     * patterns makes plain long order match {@link Double#compare}, so -0.0 comes before 0.0
+     * and NaN comes after positive infinity. Objects have their keys pulled out into a long
+     * array once, and those are sorted along with an array of indexes, so the key getter runs
+     * n times instead of on every comparison and the objects are only moved once at the end.
+     * </p>
+     */
+    static class KeySorts {
+
+        private KeySorts() {
+        }
+
+        static void sort(long[] list, int from, int to) {
+            int size = to - from;
+            if (size < IntSorts.INSERTION_THRESHOLD) {
+                insertionSort(list, null, from, to);
+            } else {
+                radixSort(list, null, from, to);
+            }
+        }
+
+        static void sort(double[] list, int from, int to) {
+            long[] keys = new long[to - from];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = toSortableLong(list[from + i]);
+            }
+            sort(keys, 0, keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                list[from + i] = fromSortableLong(keys[i]);
+            }
+        }
+
+        /**
+         * Stably sorts the items by the given keys, which must line up with the items.
+         */
+        static <T> void sortByKeys(T[] items, int from, int to, long[] keys) {
+            int[] indexes = new int[keys.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            if (keys.length < IntSorts.INSERTION_THRESHOLD) {
+                insertionSort(keys, indexes, 0, keys.length);
+            } else {
+                radixSort(keys, indexes, 0, keys.length);
+            }
+            Object[] unsorted = Arrays.copyOfRange(items, from, to, Object[].class);
+            for (int i = 0; i < indexes.length; i++) {
+                @SuppressWarnings("unchecked")
+                T item = (T) unsorted[indexes[i]];
+                items[from + i] = item;
+            }
+        }
+
+        /**
+         * Returns a long that orders the same way as the given double does under
+         * {@link Double#compare}. Every NaN maps to the same value.
+         */
+        static long toSortableLong(double value) {
+            long bits = Double.doubleToLongBits(value);
+            return bits ^ (bits >> 63 & Long.MAX_VALUE);
+        }
+
+        static double fromSortableLong(long key) {
+            return Double.longBitsToDouble(key ^ (key >> 63 & Long.MAX_VALUE));
+        }
+
+        /**
+         * Insertion sorts the range of keys, moving the matching indexes along with them if
+         * there are any.
+         */
+        private static void insertionSort(long[] keys, int[] indexes, int from, int to) {
+            for (int i = from + 1; i < to; i++) {
+                long key = keys[i];
+                int index = indexes == null ? 0 : indexes[i];
+                int j = i - 1;
+                while (j >= from && keys[j] > key) {
+                    keys[j + 1] = keys[j];
+                    if (indexes != null) {
+                        indexes[j + 1] = indexes[j];
+                    }
+                    j--;
+                }
+                keys[j + 1] = key;
+                if (indexes != null) {
+                    indexes[j + 1] = index;
+                }
+            }
+        }
+
+        /**
+         * Radix sorts the range of keys on 8-bit digits, moving the matching indexes along with
+         * them if there are any. Like the int version, it builds every histogram in one pass
+         * and skips digits that are the same for every key, so small or narrow keys only pay
+         * for the digits they use.
+         */
+        private static void radixSort(long[] keys, int[] indexes, int from, int to) {
+            int size = to - from;
+            int[][] counts = new int[8][257];
+            for (int i = from; i < to; i++) {
+                long key = keys[i] ^ Long.MIN_VALUE;
+                for (int digit = 0; digit < 8; digit++) {
+                    counts[digit][(int) (key >>> (digit * 8) & 0xFF) + 1]++;
+                }
+            }
+            long[] sourceKeys = keys;
+            int[] sourceIndexes = indexes;
+            int sourceOffset = from;
+            long[] targetKeys = new long[size];
+            int[] targetIndexes = indexes == null ? null : new int[size];
+            int targetOffset = 0;
+            for (int digit = 0; digit < 8; digit++) {
+                int[] starts = counts[digit];
+                int shift = digit * 8;
+                long first = sourceKeys[sourceOffset] ^ Long.MIN_VALUE;
+                if (starts[(int) (first >>> shift & 0xFF) + 1] == size) {
+                    continue;
+                }
+                for (int i = 1; i < starts.length; i++) {
+                    starts[i] += starts[i - 1];
+                }
+                for (int i = sourceOffset; i < sourceOffset + size; i++) {
+                    long key = sourceKeys[i];
+                    int bucket = (int) ((key ^ Long.MIN_VALUE) >>> shift & 0xFF);
+                    int target = targetOffset + starts[bucket]++;
+                    targetKeys[target] = key;
+                    if (indexes != null) {
+                        targetIndexes[target] = sourceIndexes[i];
+                    }
+                }
+                long[] swapKeys = sourceKeys;
+                sourceKeys = targetKeys;
+                targetKeys = swapKeys;
+                int[] swapIndexes = sourceIndexes;
+                sourceIndexes = targetIndexes;
+                targetIndexes = swapIndexes;
+                int swapOffset = sourceOffset;
+                sourceOffset = targetOffset;
+                targetOffset = swapOffset;
+            }
+            if (sourceKeys != keys) {
+                System.arraycopy(sourceKeys, sourceOffset, keys, from, size);
+                if (indexes != null) {
+                    System.arraycopy(sourceIndexes, sourceOffset, indexes, from, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * A natural merge sort that takes advantage of the runs the list already has.
+     * <p>
+     * The range is cut into its ascending runs, with strictly descending runs reversed in place
+     * and short runs padded out with insertion sort. Which neighbouring runs get merged, and
+     * when, follows Munro and Wild's powersort: each boundary between two runs gets a power
+     * from where its runs' midpoints fall in the range, and a boundary is merged as soon as a
+     * later one has a lower power. That keeps the merges close to those of a perfectly
+     * balanced merge tree, and never more than a few dozen runs are waiting at once.
+     * </p>
+     * <p>
+     * Each merge first trims the parts of the two runs that are already in place, then copies
+     * the shorter run out of the way and merges towards it. Once one side has won enough times
+     * in a row, the merge searches for how far that side's winning streak goes and moves the
+     * whole stretch at once, so inputs made of a few long runs take close to linear time.
+     * </p>
+     */
+    static final class AdaptiveMergeSort {
+
+        // Runs shorter than this are padded out with insertion sort before being merged
+        private static final int MIN_RUN = 32;
+
+        // How many wins in a row a merge waits for before it starts moving stretches at once
+        private static final int INITIAL_STREAK = 7;
+
+        // Powers go from 1 to 32 and only ever increase going up the stack
+        private static final int MAX_PENDING = 33;
+
+        private final int[] list;
+
+        private final int from;
+
+        private final int size;
+
+        private final Sorter.SortProbe probe;
+
+        private long comparisons;
+
+        private int streakToSearch = INITIAL_STREAK;
+
+        private int[] buffer = new int[0];
+
+        private AdaptiveMergeSort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            this.list = list;
+            this.from = from;
+            this.size = to - from;
+            this.probe = probe;
+        }
+
+        static void sort(int[] list, int from, int to, Sorter.SortProbe probe) {
+            if (to - from < 2) {
+                return;
+            }
+            AdaptiveMergeSort sort = new AdaptiveMergeSort(list, from, to, probe);
+            sort.sort(to);
+            probe.compared(sort.comparisons);
+        }
+
+        private void sort(int to) {
+            // pendingStarts[i] is where the ith waiting run starts, and each one ends where the
+            // next one does, or at runStart for the last
+            int[] pendingStarts = new int[MAX_PENDING];
+            int[] pendingPowers = new int[MAX_PENDING];
+            int pending = 0;
+            int runStart = from;
+            int runEnd = nextRun(runStart, to);
+            while (runEnd < to) {
+                int nextEnd = nextRun(runEnd, to);
+                int power = power(runStart, runEnd, nextEnd);
+                while (pending > 0 && pendingPowers[pending - 1] > power) {
+                    pending--;
+                    merge(pendingStarts[pending], runStart, runEnd);
+                    runStart = pendingStarts[pending];
+                }
+                pendingStarts[pending] = runStart;
+                pendingPowers[pending] = power;
+                pending++;
+                runStart = runEnd;
+                runEnd = nextEnd;
+            }
+            while (pending > 0) {
+                pending--;
+                merge(pendingStarts[pending], runStart, to);
+                runStart = pendingStarts[pending];
+            }
+        }
+
+        /**
+         * Finds the run starting at {@code start}, making it ascending and at least
+         * {@link #MIN_RUN} long if the range allows.
+         *
+         * @return Where the run ends
+         */
+        private int nextRun(int start, int to) {
+            int end = start + 1;
+            if (end < to && list[end] < list[start]) {
+                while (end < to && list[end] < list[end - 1]) {
+                    end++;
+                }
+                for (int i = start, j = end - 1; i < j; i++, j--) {
+                    IntSorts.swap(list, i, j, probe);
+                }
+            } else {
+                while (end < to && list[end] >= list[end - 1]) {
+                    end++;
+                }
+            }
+            // One comparison per item after the first, and one more for the item that ended it
+            comparisons += end - start - (end < to ? 0 : 1);
+            probe.passed();
+            if (end - start < MIN_RUN && end < to) {
+                end = Math.min(to, start + MIN_RUN);
+                IntSorts.insertionSort(list, start, end, probe);
+            }
+            return end;
+        }
+
+        /**
+         * Returns the power of the boundary between the adjacent runs {@code [start1, start2)}
+         * and {@code [start2, end2)}: the depth in a perfectly balanced merge tree over the whole
+         * range at which the runs' midpoints first fall on different sides. That's the number of
+         * leading bits the midpoints share, as fractions of the range, plus one.
+         */
+        private int power(int start1, int start2, int end2) {
+            // Twice each midpoint, relative to the start of the range
+            long midpoint1 = (long) start1 + start2 - 2L * from;
+            long midpoint2 = (long) start2 + end2 - 2L * from;
+            int fraction1 = (int) ((midpoint1 << 30) / size);
+            int fraction2 = (int) ((midpoint2 << 30) / size);
+            return Integer.numberOfLeadingZeros(fraction1 ^ fraction2);
+        }
+
+        /**
+         * Merges the adjacent sorted runs {@code [start, middle)} and {@code [middle, end)}.
+         */
+        private void merge(int start, int middle, int end) {
+            probe.passed();
+            comparisons++;
+            if (list[middle - 1] <= list[middle]) {
+                return; // Already in order
+            }
+            // Items of the first run no bigger than the second run's smallest stay put, and so do
+            // items of the second run at least as big as the first run's largest
+            start = searchForward(list, start, middle, list[middle], true);
+            end = searchBackward(list, middle, end, list[middle - 1], false);
+            if (middle - start <= end - middle) {
+                mergeForward(start, middle, end);
+            } else {
+                mergeBackward(start, middle, end);
+            }
+        }
+
+        /**
+         * Merges from the front, with the first run moved into the buffer.
+         */
+        private void mergeForward(int start, int middle, int end) {
+            int[] list = this.list;
+            int length1 = middle - start;
+            int[] buffer = ensureBuffer(length1);
+            IntSorts.copy(list, start, buffer, 0, length1, probe);
+            int next1 = 0;
+            int next2 = middle;
+            int target = start;
+            int streak1 = 0;
+            int streak2 = 0;
+            while (next1 < length1 && next2 < end) {
+                if (streak1 >= streakToSearch || streak2 >= streakToSearch) {
+                    // Move everything from each side that goes before the other side's next item
+                    int stop1 = searchForward(buffer, next1, length1, list[next2], true);
+                    IntSorts.copy(buffer, next1, list, target, stop1 - next1, probe);
+                    target += stop1 - next1;
+                    if (stop1 == length1) {
+                        next1 = stop1;
+                        break;
+                    }
+                    int stop2 = searchForward(list, next2, end, buffer[stop1], false);
+                    IntSorts.copy(list, next2, list, target, stop2 - next2, probe);
+                    target += stop2 - next2;
+                    adjustStreak(stop1 - next1, stop2 - next2);
+                    streak1 = stop1 - next1 >= INITIAL_STREAK ? streakToSearch : 0;
+                    streak2 = stop2 - next2 >= INITIAL_STREAK ? streakToSearch : 0;
+                    next1 = stop1;
+                    next2 = stop2;
+                    continue;
+                }
+                comparisons++;
+                if (list[next2] < buffer[next1]) {
+                    set(target++, list[next2++]);
+                    streak2++;
+                    streak1 = 0;
+                } else {
+                    set(target++, buffer[next1++]);
+                    streak1++;
+                    streak2 = 0;
+                }
+            }
+            // Whatever's left of the second run is already where it belongs
+            IntSorts.copy(buffer, next1, list, target, length1 - next1, probe);
+        }
+
+        /**
+         * Merges from the back, with the second run moved into the buffer.
+         */
+        private void mergeBackward(int start, int middle, int end) {
+            int[] list = this.list;
+            int length2 = end - middle;
+            int[] buffer = ensureBuffer(length2);
+            IntSorts.copy(list, middle, buffer, 0, length2, probe);
+            // Each side's next item is the one just before these
+            int next1 = middle;
+            int next2 = length2;
+            int target = end;
+            int streak1 = 0;
+            int streak2 = 0;
+            while (next1 > start && next2 > 0) {
+                if (streak1 >= streakToSearch || streak2 >= streakToSearch) {
+                    int stop2 = searchBackward(buffer, 0, next2, list[next1 - 1], false);
+                    target -= next2 - stop2;
+                    IntSorts.copy(buffer, stop2, list, target, next2 - stop2, probe);
+                    if (stop2 == 0) {
+                        next2 = 0;
+                        break;
+                    }
+                    int stop1 = searchBackward(list, start, next1, buffer[stop2 - 1], true);
+                    target -= next1 - stop1;
+                    IntSorts.copy(list, stop1, list, target, next1 - stop1, probe);
+                    adjustStreak(next1 - stop1, next2 - stop2);
+                    streak1 = next1 - stop1 >= INITIAL_STREAK ? streakToSearch : 0;
+                    streak2 = next2 - stop2 >= INITIAL_STREAK ? streakToSearch : 0;
+                    next1 = stop1;
+                    next2 = stop2;
+                    continue;
+                }
+                comparisons++;
+                if (buffer[next2 - 1] < list[next1 - 1]) {
+                    set(--target, list[--next1]);
+                    streak1++;
+                    streak2 = 0;
+                } else {
+                    set(--target, buffer[--next2]);
+                    streak2++;
+                    streak1 = 0;
+                }
+            }
+            // Whatever's left of the first run is already where it belongs
+            IntSorts.copy(buffer, 0, list, start, next2, probe);
+        }
+
+        /**
+         * Makes the merges quicker to start moving stretches at once after it paid off, and
+         * slower to after it didn't.
+         */
+        private void adjustStreak(int moved1, int moved2) {
+            if (moved1 >= INITIAL_STREAK || moved2 >= INITIAL_STREAK) {
+                streakToSearch = Math.max(1, streakToSearch - 1);
+            } else {
+                streakToSearch++;
+            }
+        }
+
+        /**
+         * Returns the first index in the sorted range {@code [start, end)} whose item comes after
+         * the key, checking 1, 2, 4, ... items in from the start before binary searching. Equal
+         * items come before the key if {@code equalFirst} is true, and after it if it isn't.
+         */
+        private int searchForward(int[] array, int start, int end, int key, boolean equalFirst) {
+            int low = start;
+            int probeAt = start;
+            int step = 1;
+            while (probeAt < end && !after(array[probeAt], key, equalFirst)) {
+                low = probeAt + 1;
+                probeAt = step < end - probeAt ? probeAt + step : end;
+                step <<= 1;
+            }
+            return firstAfter(array, low, Math.min(probeAt, end), key, equalFirst);
+        }
+
+        /**
+         * Like {@link #searchForward}, but checks 1, 2, 4, ... items in from the end instead.
+         */
+        private int searchBackward(int[] array, int start, int end, int key, boolean equalFirst) {
+            int high = end;
+            int probeAt = end - 1;
+            int step = 1;
+            while (probeAt >= start && after(array[probeAt], key, equalFirst)) {
+                high = probeAt;
+                probeAt = step <= probeAt - start ? probeAt - step : start - 1;
+                step <<= 1;
+            }
+            return firstAfter(array, probeAt + 1, high, key, equalFirst);
+        }
+
+        /**
+         * Binary searches {@code [low, high)} for the first item that comes after the key.
+         */
+        private int firstAfter(int[] array, int low, int high, int key, boolean equalFirst) {
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (after(array[middle], key, equalFirst)) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+
+        private boolean after(int item, int key, boolean equalFirst) {
+            comparisons++;
+            return equalFirst ? item > key : item >= key;
+        }
+
+        private void set(int index, int value) {
+            IntSorts.set(list, index, value, probe);
+            probe.moved(1);
+        }
+
+        /**
+         * Returns a buffer with room for at least the given number of items, growing it to
+         * half the range at most since merges only ever buffer the shorter run.
+         */
+        private int[] ensureBuffer(int capacity) {
+            if (buffer.length < capacity) {
+                int grown = (int) Math.min((long) buffer.length * 2, size / 2 + 1);
+                buffer = new int[Math.max(capacity, grown)];
+            }
+            return buffer;
         }
     }
 }
@@ -2,9 +2,13 @@ package com.thecraftkid.apcs;
 
 import com.thecraftkid.apcs.given.LabHelper;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A program the implements binary and sequential sort.
@@ -18,7 +22,8 @@ public class chalmersw13 {
         int[] list = LabHelper.lab12();
         int[] sorted = Searcher.sort(list);
         int choice = getSearchChoice();
-        int position = Searcher.doBinarySearch(list, choice);
+        // The original list isn't sorted, so only a sequential search works on it
+        int position = Searcher.doSequentialSearch(list, choice);
 //        int position = Arrays.binarySearch(list, getSearchChoice()); // Credit not received for this
         System.out.println("Original array:");
         System.out.println(Arrays.toString(list));
@@ -30,7 +35,7 @@ public class chalmersw13 {
         System.out.println("Sorted array: ");
         System.out.println(Arrays.toString(sorted));
         int otherPosition = Searcher.doBinarySearch(sorted, choice);
-        if (position == -1) {
+        if (otherPosition == -1) {
             System.out.println("Number wasn't found");
         } else {
             System.out.println("Your number was found at " + otherPosition);
@@ -45,6 +50,25 @@ public class chalmersw13 {
 
     public static class Searcher {
 
+        /**
+         * How many unsorted keys {@link #searchAll} searches for side by side.
+         */
+        public static final int SEARCH_GROUP = 16;
+
+        /**
+         * How many items the parallel scans check between looks at whether they can stop.
+         */
+        public static final int SCAN_STRETCH = 1 << 12;
+
+        // Lists shorter than this are scanned on one thread
+        private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+        // Interpolation search binary searches ranges this small
+        private static final int INTERPOLATION_CUTOFF = 16;
+
+        // How many evenly spaced items choose checks against a straight line
+        private static final int UNIFORMITY_SAMPLES = 16;
+
         private SearchCallback callback;
 
         public Searcher(SearchCallback callback) {
@@ -54,27 +78,326 @@ public class chalmersw13 {
         /**
          * Performs a binary search on the given list.
          * </br>
-         * TODO: Document this
+         * This repeatedly halves the part of the list the number could be in, so the list has
+         * to be sorted from least to greatest.
          *
-         * @param list     The list to search through
+         * @param list     The sorted list to search through
          * @param toSearch The value to find the in the list
-         * @return The index of the given number to search, -1 if it doesn't exist
+         * @return The index of the given number to search, -1 if it doesn't exist. If it's in
+         * the list more than once, the index of the first one.
          */
         public static int doBinarySearch(int[] list, int toSearch) {
-            int lowestIndex = 0;
-            int highestIndex = list.length;
-            while (lowestIndex + 1 < highestIndex) {
-                int testIndex = (lowestIndex + highestIndex) / 2;
-                if (list[testIndex] > toSearch) {
-                    highestIndex = testIndex;
+            return indexOf(list, 0, list.length, toSearch);
+        }
+
+        /**
+         * Returns the first index in the sorted range {@code [from, to)} whose item is at least
+         * the given key, or {@code to} if there isn't one.
+         * <p>
+         * Each step shrinks the range by half whichever way the comparison goes and only moves
+         * its start conditionally, which the JIT compiles to a conditional move, so there's no
+         * branch to mispredict until the last step.
+         * </p>
+         */
+        public static int lowerBound(int[] list, int from, int to, int key) {
+            checkRange(list.length, from, to);
+            int base = from;
+            int size = to - from;
+            while (size > 1) {
+                int half = size >>> 1;
+                base = list[base + half - 1] < key ? base + half : base;
+                size -= half;
+            }
+            return size == 1 && list[base] < key ? base + 1 : base;
+        }
+
+        /**
+         * Returns the first index in the sorted range {@code [from, to)} whose item is greater
+         * than the given key, or {@code to} if there isn't one.
+         */
+        public static int upperBound(int[] list, int from, int to, int key) {
+            checkRange(list.length, from, to);
+            int base = from;
+            int size = to - from;
+            while (size > 1) {
+                int half = size >>> 1;
+                base = list[base + half - 1] <= key ? base + half : base;
+                size -= half;
+            }
+            return size == 1 && list[base] <= key ? base + 1 : base;
+        }
+
+        /**
+         * Returns the range of indexes in the sorted range {@code [from, to)} whose items
+         * equal the given key.
+         *
+         * @return The start of the range, inclusive, and the end, exclusive. They're the same
+         * if the key isn't there.
+         */
+        public static int[] equalRange(int[] list, int from, int to, int key) {
+            int lower = lowerBound(list, from, to, key);
+            return new int[]{lower, upperBound(list, lower, to, key)};
+        }
+
+        /**
+         * Returns the index of the first item equal to the key in the sorted range
+         * {@code [from, to)}, or -1 if there isn't one.
+         */
+        public static int indexOf(int[] list, int from, int to, int key) {
+            int index = lowerBound(list, from, to, key);
+            return index < to && list[index] == key ? index : -1;
+        }
+
+        /**
+         * Counts the items in the sorted range {@code [from, to)} between {@code low} and
+         * {@code high}, inclusive, with two binary searches.
+         */
+        public static int countBetween(int[] list, int from, int to, int low, int high) {
+            if (low > high) {
+                return 0;
+            }
+            int lower = lowerBound(list, from, to, low);
+            return upperBound(list, lower, to, high) - lower;
+        }
+
+        /**
+         * Returns the index of the first item equal to the key in the sorted range
+         * {@code [from, to)}, or -1 if there isn't one, finding it with the given strategy.
+         */
+        public static int indexOf(int[] list, int from, int to, int key, SearchStrategy strategy) {
+            int index = strategy.lowerBound(list, from, to, key);
+            return index < to && list[index] == key ? index : -1;
+        }
+
+        /**
+         * Like {@link #lowerBound(int[], int, int, int)}, but guesses where the key is from
+         * its value instead of always looking in the middle.
+         * <p>
+         * If the values go up at a steady rate, the guess lands right next to the key and
+         * lookups take O(log log n) probes. To keep lopsided lists from making it crawl, any
+         * guess that doesn't at least halve the range is followed by an ordinary binary search
+         * step, so it never takes more than about twice as many probes as binary search.
+         * </p>
+         */
+        public static int interpolationLowerBound(int[] list, int from, int to, int key) {
+            checkRange(list.length, from, to);
+            // The answer is always in [low, high]
+            int low = from;
+            int high = to;
+            while (high - low > INTERPOLATION_CUTOFF) {
+                int lowValue = list[low];
+                int highValue = list[high - 1];
+                if (key <= lowValue) {
+                    return low;
+                }
+                if (key > highValue) {
+                    return high;
+                }
+                // lowValue < key <= highValue, so the guess is in [low, high - 1]
+                double fraction = ((double) key - lowValue) / ((double) highValue - lowValue);
+                int guess = low + (int) (fraction * (high - 1 - low));
+                int size = high - low;
+                if (list[guess] < key) {
+                    low = guess + 1;
                 } else {
-                    lowestIndex = testIndex;
+                    high = guess;
+                }
+                if (high - low > size / 2) {
+                    int middle = (low + high) >>> 1;
+                    if (list[middle] < key) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
                 }
             }
-            if (list[lowestIndex] < toSearch) {
-                return lowestIndex;
+            return lowerBound(list, low, high, key);
+        }
+
+        /**
+         * Like {@link #lowerBound(int[], int, int, int)}, but searches outward from
+         * {@code from}, doubling how far it looks each time, then binary searches the last
+         * stretch. Takes O(log d) probes for a key d items in, so it beats binary search when
+         * keys tend to be near the front.
+         */
+        public static int exponentialLowerBound(int[] list, int from, int to, int key) {
+            checkRange(list.length, from, to);
+            int low = from;
+            int position = from;
+            int step = 1;
+            while (position < to && list[position] < key) {
+                low = position + 1;
+                position = step < to - position ? position + step : to;
+                step <<= 1;
+            }
+            return lowerBound(list, low, position, key);
+        }
+
+        /**
+         * Picks the strategy that should find keys in the sorted range with the fewest probes,
+         * by checking how close a sample of its items is to a straight line. The sample costs
+         * more probes than a binary search of a small list, so call this once per list and
+         * pass what it returns to every {@link #indexOf(int[], int, int, int, SearchStrategy)}
+         * on that list.
+         */
+        public static Strategy choose(int[] list, int from, int to) {
+            checkRange(list.length, from, to);
+            int size = to - from;
+            if (size < 4 * INTERPOLATION_CUTOFF) {
+                return Strategy.BINARY;
+            }
+            double first = list[from];
+            double range = (double) list[to - 1] - first;
+            if (range == 0) {
+                return Strategy.BINARY;
+            }
+            double worst = 0;
+            for (int i = 1; i < UNIFORMITY_SAMPLES; i++) {
+                long index = from + (long) (size - 1) * i / UNIFORMITY_SAMPLES;
+                double expected = first + range * (index - from) / (size - 1);
+                worst = Math.max(worst, Math.abs(list[(int) index] - expected));
+            }
+            return worst <= range / UNIFORMITY_SAMPLES ? Strategy.INTERPOLATION : Strategy.BINARY;
+        }
+
+        /**
+         * Like {@link #lowerBound(int[], int, int, int)}, for longs.
+         */
+        public static int lowerBound(long[] list, int from, int to, long key) {
+            checkRange(list.length, from, to);
+            int base = from;
+            int size = to - from;
+            while (size > 1) {
+                int half = size >>> 1;
+                base = list[base + half - 1] < key ? base + half : base;
+                size -= half;
+            }
+            return size == 1 && list[base] < key ? base + 1 : base;
+        }
+
+        /**
+         * Like {@link #upperBound(int[], int, int, int)}, for longs.
+         */
+        public static int upperBound(long[] list, int from, int to, long key) {
+            checkRange(list.length, from, to);
+            int base = from;
+            int size = to - from;
+            while (size > 1) {
+                int half = size >>> 1;
+                base = list[base + half - 1] <= key ? base + half : base;
+                size -= half;
+            }
+            return size == 1 && list[base] <= key ? base + 1 : base;
+        }
+
+        /**
+         * Like {@link #equalRange(int[], int, int, int)}, for longs.
+         */
+        public static int[] equalRange(long[] list, int from, int to, long key) {
+            int lower = lowerBound(list, from, to, key);
+            return new int[]{lower, upperBound(list, lower, to, key)};
+        }
+
+        /**
+         * Like {@link #indexOf(int[], int, int, int)}, for longs.
+         */
+        public static int indexOf(long[] list, int from, int to, long key) {
+            int index = lowerBound(list, from, to, key);
+            return index < to && list[index] == key ? index : -1;
+        }
+
+        /**
+         * Like {@link #countBetween(int[], int, int, int, int)}, for longs.
+         */
+        public static int countBetween(long[] list, int from, int to, long low, long high) {
+            if (low > high) {
+                return 0;
+            }
+            int lower = lowerBound(list, from, to, low);
+            return upperBound(list, lower, to, high) - lower;
+        }
+
+        /**
+         * Looks up every key in the sorted list at once.
+         * <p>
+         * Sorted keys are answered in one sweep through the list, galloping forward from where
+         * the last key was found, so the list is read in order and keys that are close together
+         * cost almost nothing. Unsorted keys are binary searched {@link #SEARCH_GROUP} at a
+         * time in lockstep. Java can't prefetch explicitly, but every search in a group takes
+         * the same number of steps, and their loads don't depend on each other, so the
+         * processor can have all of their cache misses in flight at once instead of stalling on
+         * each in turn.
+         * </p>
+         *
+         * @param sorted The list to search, sorted from least to greatest
+         * @param keys   The values to find
+         * @return The index of the first item equal to each key, or -1 where there isn't one
+         */
+        public static int[] searchAll(int[] sorted, int[] keys) {
+            int[] indexes = new int[keys.length];
+            if (isSorted(keys)) {
+                sweep(sorted, keys, indexes);
             } else {
-                return -1;
+                for (int start = 0; start < keys.length; start += SEARCH_GROUP) {
+                    searchGroup(sorted, keys, start, Math.min(start + SEARCH_GROUP, keys.length),
+                            indexes);
+                }
+            }
+            return indexes;
+        }
+
+        private static boolean isSorted(int[] list) {
+            for (int i = 1; i < list.length; i++) {
+                if (list[i] < list[i - 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finds each of the sorted keys by galloping forward from the previous key's spot.
+         */
+        private static void sweep(int[] sorted, int[] keys, int[] indexes) {
+            int position = 0;
+            for (int k = 0; k < keys.length; k++) {
+                int key = keys[k];
+                position = exponentialLowerBound(sorted, position, sorted.length, key);
+                indexes[k] = position < sorted.length && sorted[position] == key ? position : -1;
+            }
+        }
+
+        /**
+         * Binary searches for {@code keys[start ... end)} side by side.
+         */
+        private static void searchGroup(int[] sorted, int[] keys, int start, int end,
+                                        int[] indexes) {
+            // The bases start at 0, and indexes doubles as their storage
+            for (int k = start; k < end; k++) {
+                indexes[k] = 0;
+            }
+            int size = sorted.length;
+            while (size > 1) {
+                int half = size >>> 1;
+                for (int k = start; k < end; k++) {
+                    int base = indexes[k];
+                    indexes[k] = sorted[base + half - 1] < keys[k] ? base + half : base;
+                }
+                size -= half;
+            }
+            for (int k = start; k < end; k++) {
+                int base = indexes[k];
+                if (size == 1 && sorted[base] < keys[k]) {
+                    base++;
+                }
+                indexes[k] = base < sorted.length && sorted[base] == keys[k] ? base : -1;
+            }
+        }
+
+        static void checkRange(int length, int from, int to) {
+            if (from < 0 || from > to || to > length) {
+                throw new ArrayIndexOutOfBoundsException(
+                        "Range [" + from + ", " + to + ") of " + length);
             }
         }
 
@@ -97,10 +420,163 @@ public class chalmersw13 {
             return -1;
         }
 
+        /**
+         * Like {@link #doSequentialSearch}, but scans blocks of the list on every core of the
+         * common {@link ForkJoinPool}.
+         * <p>
+         * Whoever finds the key first lowers a shared cutoff to its index. Every worker checks
+         * the cutoff between stretches of {@link #SCAN_STRETCH} items and stops once it's past
+         * it, so the search ends soon after the first match turns up, and since nothing before
+         * the cutoff is ever skipped, the answer is still the first occurrence.
+         * </p>
+         *
+         * @return The index of the first item equal to the key, or -1 if there isn't one
+         */
+        public static int parallelIndexOf(int[] list, int toSearch) {
+            if (list.length < PARALLEL_THRESHOLD) {
+                return doSequentialSearch(list, toSearch);
+            }
+            AtomicInteger cutoff = new AtomicInteger(list.length);
+            forkBlocks(list.length, (from, to) -> {
+                for (int start = from; start < to && start < cutoff.get(); start += SCAN_STRETCH) {
+                    int end = Math.min(to, start + SCAN_STRETCH);
+                    for (int i = start; i < end; i++) {
+                        if (list[i] == toSearch) {
+                            cutoff.accumulateAndGet(i, Math::min);
+                            return null;
+                        }
+                    }
+                }
+                return null;
+            });
+            int index = cutoff.get();
+            return index == list.length ? -1 : index;
+        }
+
+        /**
+         * Counts the items equal to the key, splitting the list across every core.
+         */
+        public static int parallelCount(int[] list, int toSearch) {
+            int count = 0;
+            for (ForkJoinTask<Integer> block : forkBlocks(list.length,
+                    (from, to) -> count(list, from, to, toSearch))) {
+                count += block.join();
+            }
+            return count;
+        }
+
+        /**
+         * Returns the index of every item equal to the key in ascending order, splitting the
+         * list across every core.
+         */
+        public static int[] parallelFindAll(int[] list, int toSearch) {
+            List<ForkJoinTask<int[]>> blocks = forkBlocks(list.length, (from, to) -> {
+                // Counting first means each block allocates exactly what it needs
+                int[] indexes = new int[count(list, from, to, toSearch)];
+                for (int i = from, found = 0; found < indexes.length; i++) {
+                    if (list[i] == toSearch) {
+                        indexes[found++] = i;
+                    }
+                }
+                return indexes;
+            });
+            int total = 0;
+            for (ForkJoinTask<int[]> block : blocks) {
+                total += block.join().length;
+            }
+            int[] indexes = new int[total];
+            int offset = 0;
+            for (ForkJoinTask<int[]> block : blocks) {
+                int[] found = block.join();
+                System.arraycopy(found, 0, indexes, offset, found.length);
+                offset += found.length;
+            }
+            return indexes;
+        }
+
+        private static int count(int[] list, int from, int to, int toSearch) {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                count += list[i] == toSearch ? 1 : 0;
+            }
+            return count;
+        }
+
+        /**
+         * Cuts {@code [0, length)} into equal blocks, up to four per worker of the common pool
+         * but none shorter than {@link #PARALLEL_THRESHOLD}, and runs the work on all of them
+         * in parallel.
+         *
+         * @return The finished tasks in the order of their blocks
+         */
+        private static <T> List<ForkJoinTask<T>> forkBlocks(int length, BlockWork<T> work) {
+            long workers = ForkJoinPool.getCommonPoolParallelism();
+            int blocks = (int) Math.max(1, Math.min(4 * workers, length / PARALLEL_THRESHOLD));
+            List<ForkJoinTask<T>> tasks = new ArrayList<>(blocks);
+            for (int i = 0; i < blocks; i++) {
+                int from = (int) ((long) length * i / blocks);
+                int to = (int) ((long) length * (i + 1) / blocks);
+                tasks.add(ForkJoinTask.adapt(() -> work.run(from, to)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            return tasks;
+        }
+
+        /**
+         * Work done on the block {@code [from, to)} of a list split up by {@link #forkBlocks}.
+         */
+        @FunctionalInterface
+        private interface BlockWork<T> {
+            T run(int from, int to);
+        }
+
         private static int[] sort(int[] list) {
             return new chalmersw12.Sorter(list).sortInsertion();
         }
 
+        /**
+         * A way of finding where a key belongs in part of a sorted int array.
+         */
+        @FunctionalInterface
+        public interface SearchStrategy {
+            /**
+             * Returns the first index in the sorted range {@code [from, to)} whose item is at
+             * least the given key, or {@code to} if there isn't one.
+             */
+            int lowerBound(int[] list, int from, int to, int key);
+        }
+
+        /**
+         * The search strategies that come with {@link Searcher}. {@link #choose} picks between
+         * them for a particular list.
+         */
+        public enum Strategy implements SearchStrategy {
+            /**
+             * Halves the range every probe. O(log n) whatever the items are.
+             */
+            BINARY(Searcher::lowerBound),
+            /**
+             * Guesses from the key's value. O(log log n) on evenly spread items, and never
+             * worse than twice binary search.
+             */
+            INTERPOLATION(Searcher::interpolationLowerBound),
+            /**
+             * Gallops out from the front. O(log d) for a key d items in.
+             */
+            EXPONENTIAL(Searcher::exponentialLowerBound);
+
+            private final SearchStrategy implementation;
+
+            Strategy(SearchStrategy implementation) {
+                this.implementation = implementation;
+            }
+
+            @Override
+            public int lowerBound(int[] list, int from, int to, int key) {
+                return implementation.lowerBound(list, from, to, key);
+            }
+        }
+
         public interface SearchCallback {
             default void onSearchUpdate(List<Integer> list, int iteration, boolean found) {
                 onSearchUpdate(list.toArray(new Integer[list.size()]), iteration, found);
@@ -109,4 +585,170 @@ public class chalmersw13 {
             void onSearchUpdate(Integer[] list, int iteration, boolean found);
         }
     }
+
+    /**
+     * A sorted list rearranged for fast searching, for lists that are searched far more often
+     * than they change.
+     * <p>
+     * The items are stored in Eytzinger order: the way a complete binary search tree's nodes
+     * come out of a breadth-first walk, with the root at 1 and the children of {@code k} at
+     * {@code 2k} and {@code 2k + 1}. A search only ever moves from a node to one of its
+     * children, so the first few levels a search needs always share the same few cache lines
+     * and both children it might read next sit side by side. A plain binary search's first
+     * probes land all over a big list instead, each on its own cache line. Each step is a
+     * comparison added to an index, so there's no branch to mispredict either.
+     * </p>
+     * <p>
+     * A single search still waits out each of its cache misses one after another, so on its
+     * own it's no faster than a binary search, and sometimes slower. Java can't prefetch
+     * explicitly, so the real speedup comes from {@link #searchAll}, which walks groups of
+     * searches in lockstep to overlap their cache misses, like {@link Searcher#searchAll}. The
+     * index never changes once it's built, so any number of threads can search it at once.
+     * </p>
+     */
+    public static class SearchIndex {
+
+        // tree[k] is node k, and tree[0] is unused so the children of k are 2k and 2k + 1
+        private final int[] tree;
+
+        // ranks[k] is where node k was in the sorted list, and ranks[0] is one past the end
+        private final int[] ranks;
+
+        /**
+         * Builds an index of the given sorted list.
+         *
+         * @throws IllegalArgumentException If the list isn't sorted from least to greatest
+         */
+        public SearchIndex(int[] sorted) {
+            this(sorted, 0, sorted.length);
+        }
+
+        /**
+         * Builds an index of the sorted range {@code [from, to)} of the given list. Indexes it
+         * returns count from {@code from}.
+         *
+         * @throws IllegalArgumentException If the range isn't sorted from least to greatest
+         */
+        public SearchIndex(int[] sorted, int from, int to) {
+            Searcher.checkRange(sorted.length, from, to);
+            for (int i = from + 1; i < to; i++) {
+                if (sorted[i] < sorted[i - 1]) {
+                    throw new IllegalArgumentException("List isn't sorted at index " + i);
+                }
+            }
+            int size = to - from;
+            tree = new int[size + 1];
+            ranks = new int[size + 1];
+            ranks[0] = size;
+            fill(sorted, from, 0, 1);
+        }
+
+        /**
+         * Fills in the subtree rooted at node {@code k} with an in-order walk, taking items
+         * from the list starting at {@code from + rank}.
+         *
+         * @return The rank of the next item to take
+         */
+        private int fill(int[] sorted, int from, int rank, int k) {
+            if (k < tree.length) {
+                rank = fill(sorted, from, rank, 2 * k);
+                tree[k] = sorted[from + rank];
+                ranks[k] = rank++;
+                rank = fill(sorted, from, rank, 2 * k + 1);
+            }
+            return rank;
+        }
+
+        public int size() {
+            return tree.length - 1;
+        }
+
+        /**
+         * Returns how many items are less than the key, which is the index of the first one
+         * at least as big as it.
+         */
+        public int lowerBound(int key) {
+            return ranks[search(key)];
+        }
+
+        /**
+         * Returns how many items are at most the key, which is the index of the first one
+         * bigger than it.
+         */
+        public int upperBound(int key) {
+            return key == Integer.MAX_VALUE ? size() : lowerBound(key + 1);
+        }
+
+        /**
+         * Returns the index of the first item equal to the key, or -1 if there isn't one.
+         */
+        public int indexOf(int key) {
+            int k = search(key);
+            return k != 0 && tree[k] == key ? ranks[k] : -1;
+        }
+
+        public boolean contains(int key) {
+            return indexOf(key) != -1;
+        }
+
+        /**
+         * Counts the items between {@code low} and {@code high}, inclusive.
+         */
+        public int countBetween(int low, int high) {
+            return low > high ? 0 : upperBound(high) - lowerBound(low);
+        }
+
+        /**
+         * Looks up every key at once, {@link Searcher#SEARCH_GROUP} at a time in lockstep.
+         *
+         * @return The index of the first item equal to each key, or -1 where there isn't one
+         */
+        public int[] searchAll(int[] keys) {
+            int[] tree = this.tree;
+            int[] nodes = new int[keys.length];
+            int depth = 32 - Integer.numberOfLeadingZeros(size());
+            for (int start = 0; start < keys.length; start += Searcher.SEARCH_GROUP) {
+                int end = Math.min(start + Searcher.SEARCH_GROUP, keys.length);
+                Arrays.fill(nodes, start, end, 1);
+                // Every search goes down at least depth - 1 levels, so do those together
+                for (int level = 1; level < depth; level++) {
+                    for (int i = start; i < end; i++) {
+                        int k = nodes[i];
+                        nodes[i] = 2 * k + (tree[k] < keys[i] ? 1 : 0);
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    int k = nodes[i];
+                    while (k < tree.length) {
+                        k = 2 * k + (tree[k] < keys[i] ? 1 : 0);
+                    }
+                    k = lastLeftTurn(k);
+                    nodes[i] = k != 0 && tree[k] == keys[i] ? ranks[k] : -1;
+                }
+            }
+            return nodes;
+        }
+
+        /**
+         * Returns the node holding the first item at least as big as the key, or 0 if there
+         * isn't one.
+         */
+        private int search(int key) {
+            int[] tree = this.tree;
+            int k = 1;
+            while (k < tree.length) {
+                k = 2 * k + (tree[k] < key ? 1 : 0);
+            }
+            return lastLeftTurn(k);
+        }
+
+        /**
+         * Undoes the trailing right turns of a search that fell off the tree at {@code k},
+         * leaving the last node where it turned left, which is the first item at least as big
+         * as the key. Returns 0 if it never turned left.
+         */
+        private static int lastLeftTurn(int k) {
+            return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+        }
+    }
 }
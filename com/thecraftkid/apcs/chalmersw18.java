@@ -1,9 +1,15 @@
 package com.thecraftkid.apcs;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntToLongFunction;
+import java.util.function.LongBinaryOperator;
 
 /**
  * A program that finds the prime factors of a user defined integer and finds
@@ -17,10 +23,14 @@ public class chalmersw18 {
     public static void main(String[] args) {
         int given = getNumber();
         System.out.printf("Computing prime factors for %s...\n", given);
-        findPrimeFactors(given);
+        System.out.printf("They're %s\n", findPrimeFactors(given));
 
         System.out.printf("Computing Fibonacci number for %s...\n", given);
-        System.out.printf("It's %s\n", findFibonacci(given));
+        if (Math.abs((long) given) <= Fibonacci.MAX_LONG_INDEX) {
+            System.out.printf("It's %s\n", findFibonacci(given));
+        } else {
+            System.out.printf("It's %s\n", Fibonacci.exact(given));
+        }
     }
 
     /**
@@ -40,30 +50,32 @@ public class chalmersw18 {
     }
 
     /**
-     * Prints out prime factors for a given integer.
-     * TODO: Add prime factors to list and return that
+     * Returns the prime factors for the given integer, smallest first, with repeated factors
+     * listed as many times as they divide it.
+     * <p>
+     * This splits off the smallest prime factor and recurses on whatever's left.
+     * </p>
      */
-    public static void findPrimeFactors(int n) {
-        int d = 0;
-        for (int i = 2; i < n / 2; i++) { // Start at first prime integer, end halfway
-            d++;
-            if (n % d == 0) {
-                System.out.println(n);
-                i = n / d;
-                findPrimeFactors(n);
-            }
-            System.out.println(n);
+    public static List<Integer> findPrimeFactors(int n) {
+        List<Integer> primeFactors = new ArrayList<>();
+        if (n > 1) {
+            int smallest = (int) Factorizer.smallestPrimeFactor(n);
+            primeFactors.add(smallest);
+            primeFactors.addAll(findPrimeFactors(n / smallest));
         }
+        return primeFactors;
     }
 
     /**
-     * Returns the prime factors for the given integer.
+     * Returns the prime factors for the given integer, smallest first, with repeated factors
+     * listed as many times as they divide it.
      */
     public static List<Integer> findPrimeFactorsNonRecursively(int n) {
         List<Integer> primeFactors = new ArrayList<>();
-        for (int i = 2; i < n / 2; i++) {
-            if (!(n / i == 0)) { // Test if i is multiple of n
-                primeFactors.add(i);
+        long[] factors = Factorizer.factor(Math.max(n, 1));
+        for (int i = 0; i < factors.length; i += 2) {
+            for (long power = 0; power < factors[i + 1]; power++) {
+                primeFactors.add((int) factors[i]);
             }
         }
         return primeFactors;
@@ -73,15 +85,700 @@ public class chalmersw18 {
      * Computes the Fibonacci number for the given input.
      * <p>
      * More specifically, this computes a number such that the returned value
-     * is the sum of the returned value of the number minus 1.
+     * is the sum of the returned values of the two numbers before it, starting
+     * from F(0) = 0 and F(1) = 1.
      * </p>
      *
      * @param n The nth Fibonacci number in the sequence
+     * @throws ArithmeticException If the number doesn't fit in a long
+     * @see Fibonacci
+     */
+    public static long findFibonacci(int n) {
+        return Fibonacci.fib(n);
+    }
+
+    /**
+     * Factors integers into primes.
+     * <p>
+     * There are two paths. Numbers covered by the {@link SmallestFactorTable} are factored by
+     * just following the table, one lookup per prime factor. Anything bigger has its small
+     * factors stripped by trial division, and the rest is split with Brent's variant of Pollard's
+     * rho until {@link chalmersw10#isPrime(long)} says every piece is prime.
+     * </p>
+     * <p>
+     * Factorizations are returned as a flat {@code long[]} of prime and exponent pairs, so
+     * {@code factor(360)} is {@code [2, 3, 3, 2, 5, 1]}.
+     * </p>
      */
-    public static int findFibonacci(int n) {
-        if (n < 1) {
-            return 1;
+    public static class Factorizer {
+
+        // Primes below this are stripped by trial division before trying rho
+        private static final int TRIAL_LIMIT = 1 << 10;
+
+        private static final int[] TRIAL_PRIMES = chalmersw10.PrimeSieve.oddPrimesTo(TRIAL_LIMIT);
+
+        private Factorizer() {
+        }
+
+        /**
+         * Returns the prime factorization of the given number as prime and exponent pairs,
+         * smallest prime first. 1 has no prime factors, so it gives an empty array.
+         *
+         * @throws IllegalArgumentException If the number isn't positive
+         */
+        public static long[] factor(long n) {
+            if (n < 1) {
+                throw new IllegalArgumentException("Only positive numbers can be factored: " + n);
+            }
+            FactorList factors = new FactorList();
+            factorInto(n, factors);
+            return factors.toPairs();
+        }
+
+        /**
+         * Factors every number in the given array in parallel.
+         *
+         * @throws IllegalArgumentException If any of the numbers isn't positive
+         * @see #factorAll(long[])
+         */
+        public static FactorBatch factorAll(int[] numbers) {
+            return FactorBatch.compute(numbers.length, i -> numbers[i]);
+        }
+
+        /**
+         * Factors every number in the given array in parallel.
+         * <p>
+         * The array is split into blocks that are factored on the common {@link ForkJoinPool},
+         * each into its own buffer. The buffers are then copied into one flat
+         * {@link FactorBatch}, so nothing is allocated per number.
+         * </p>
+         *
+         * @throws IllegalArgumentException If any of the numbers isn't positive
+         */
+        public static FactorBatch factorAll(long[] numbers) {
+            return FactorBatch.compute(numbers.length, i -> numbers[i]);
+        }
+
+        /**
+         * Adds the prime factors of the given number to the list.
+         */
+        static void factorInto(long n, FactorList factors) {
+            if (n < 1) {
+                throw new IllegalArgumentException("Only positive numbers can be factored: " + n);
+            }
+            int twos = Long.numberOfTrailingZeros(n);
+            if (twos > 0) {
+                factors.add(2, twos);
+                n >>>= twos;
+            }
+            SmallestFactorTable table = SmallestFactorTable.shared();
+            if (n > table.getLimit()) {
+                for (int prime : TRIAL_PRIMES) {
+                    if ((long) prime * prime > n) {
+                        break;
+                    }
+                    if (n % prime == 0) {
+                        int exponent = 0;
+                        do {
+                            n /= prime;
+                            exponent++;
+                        } while (n % prime == 0);
+                        factors.add(prime, exponent);
+                    }
+                }
+            }
+            if (n <= table.getLimit()) {
+                table.factorInto((int) n, factors);
+            } else {
+                splitInto(n, factors);
+            }
+        }
+
+        /**
+         * Returns the smallest prime factor of the given number.
+         *
+         * @throws IllegalArgumentException If the number is less than 2
+         */
+        public static long smallestPrimeFactor(long n) {
+            if (n < 2) {
+                throw new IllegalArgumentException(n + " has no prime factors");
+            }
+            SmallestFactorTable table = SmallestFactorTable.shared();
+            if (n <= table.getLimit()) {
+                return table.smallestPrimeFactor((int) n);
+            }
+            return factor(n)[0];
+        }
+
+        /**
+         * Adds the prime factors of a number with no factors below {@link #TRIAL_LIMIT} to the
+         * list, in no particular order.
+         */
+        private static void splitInto(long n, FactorList factors) {
+            long[] pending = new long[64]; // A long has at most 63 prime factors
+            int size = 0;
+            pending[size++] = n;
+            while (size > 0) {
+                long m = pending[--size];
+                if (m == 1) {
+                    continue;
+                }
+                if (chalmersw10.isPrime(m)) {
+                    factors.add(m, 1);
+                    continue;
+                }
+                long divisor = pollardRho(m);
+                pending[size++] = divisor;
+                pending[size++] = m / divisor;
+            }
+        }
+
+        /**
+         * Returns a nontrivial factor of the given odd composite using Brent's variant of
+         * Pollard's rho.
+         * <p>
+         * Everything stays in Montgomery form. That doesn't hurt the gcds since R is coprime to
+         * the number, and it lets the differences be multiplied together so only one gcd is
+         * needed every {@code BATCH} steps.
+         * </p>
+         */
+        static long pollardRho(long n) {
+            final int batch = 128;
+            chalmersw10.Montgomery montgomery = new chalmersw10.Montgomery(n);
+            for (long c = 1; ; c++) {
+                long increment = montgomery.toMontgomery(c);
+                long y = montgomery.toMontgomery(2);
+                long x = y;
+                long saved = y;
+                long product = montgomery.one;
+                long divisor = 1;
+                for (long length = 1; divisor == 1; length <<= 1) {
+                    x = y;
+                    for (long i = 0; i < length; i++) {
+                        y = step(montgomery, y, increment);
+                    }
+                    for (long k = 0; k < length && divisor == 1; k += batch) {
+                        saved = y;
+                        for (long i = 0; i < batch && i < length - k; i++) {
+                            y = step(montgomery, y, increment);
+                            product = montgomery.multiply(product, montgomery.subtract(x, y));
+                        }
+                        divisor = gcd(product, n);
+                    }
+                }
+                if (divisor == n) {
+                    // The batch overshot, so redo it one step at a time
+                    do {
+                        saved = step(montgomery, saved, increment);
+                        divisor = gcd(montgomery.subtract(x, saved), n);
+                    } while (divisor == 1);
+                }
+                if (divisor != n) {
+                    return divisor;
+                }
+                // That cycle was a dud, try another polynomial
+            }
+        }
+
+        private static long step(chalmersw10.Montgomery montgomery, long y, long increment) {
+            return montgomery.add(montgomery.multiply(y, y), increment);
+        }
+
+        /**
+         * Returns the greatest common divisor of two non-negative numbers using Stein's binary
+         * algorithm.
+         */
+        static long gcd(long a, long b) {
+            if (a == 0) {
+                return b;
+            }
+            if (b == 0) {
+                return a;
+            }
+            int shift = Long.numberOfTrailingZeros(a | b);
+            a >>>= Long.numberOfTrailingZeros(a);
+            while (b != 0) {
+                b >>>= Long.numberOfTrailingZeros(b);
+                if (a > b) {
+                    long swap = a;
+                    a = b;
+                    b = swap;
+                }
+                b -= a;
+            }
+            return a << shift;
+        }
+    }
+
+    /**
+     * The factorizations of a batch of numbers, stored flat.
+     * <p>
+     * Like a compressed sparse row matrix, every prime and exponent pair goes in one
+     * {@code factors} array, and {@code offsets[i]} to {@code offsets[i + 1]} is the slice of it
+     * that belongs to the {@code i}th number.
+     * </p>
+     */
+    public static class FactorBatch {
+
+        // Numbers factored per task, enough to make the task overhead disappear
+        private static final int BLOCK_SIZE = 1 << 12;
+
+        private final int[] offsets;
+
+        private final long[] factors;
+
+        private FactorBatch(int[] offsets, long[] factors) {
+            this.offsets = offsets;
+            this.factors = factors;
+        }
+
+        static FactorBatch compute(int count, IntToLongFunction numbers) {
+            List<ForkJoinTask<Block>> blocks = new ArrayList<>();
+            for (int start = 0; start < count; start += BLOCK_SIZE) {
+                int blockStart = start;
+                int blockEnd = Math.min(count, start + BLOCK_SIZE);
+                blocks.add(ForkJoinTask.adapt(() -> new Block(blockStart, blockEnd, numbers)));
+            }
+            ForkJoinTask.invokeAll(blocks);
+
+            int[] offsets = new int[count + 1];
+            long total = 0;
+            for (ForkJoinTask<Block> task : blocks) {
+                Block block = task.join();
+                block.base = total;
+                for (int i = block.start; i < block.end; i++) {
+                    offsets[i] = Math.toIntExact(total + block.offsets[i - block.start]);
+                }
+                total += block.size;
+            }
+            offsets[count] = Math.toIntExact(total);
+            long[] factors = new long[offsets[count]];
+            List<ForkJoinTask<?>> copies = new ArrayList<>();
+            for (ForkJoinTask<Block> task : blocks) {
+                Block block = task.join();
+                copies.add(ForkJoinTask.adapt(() -> System.arraycopy(
+                        block.factors, 0, factors, (int) block.base, block.size)));
+            }
+            ForkJoinTask.invokeAll(copies);
+            return new FactorBatch(offsets, factors);
+        }
+
+        /**
+         * Returns how many numbers were factored.
+         */
+        public int size() {
+            return offsets.length - 1;
+        }
+
+        /**
+         * Returns how many distinct primes divide the number at the given index.
+         */
+        public int distinctPrimeCount(int index) {
+            return (offsets[index + 1] - offsets[index]) / 2;
+        }
+
+        /**
+         * Returns the factorization of the number at the given index as prime and exponent
+         * pairs.
+         */
+        public long[] getFactorsOf(int index) {
+            return Arrays.copyOfRange(factors, offsets[index], offsets[index + 1]);
+        }
+
+        /**
+         * Returns the start of each number's slice of {@link #getFactors()}, plus one extra entry
+         * for the end of the last one. This is the array itself, not a copy.
+         */
+        public int[] getOffsets() {
+            return offsets;
+        }
+
+        /**
+         * Returns every prime and exponent pair in the batch. This is the array itself, not a
+         * copy.
+         */
+        public long[] getFactors() {
+            return factors;
+        }
+
+        /**
+         * One block's worth of factorizations with offsets relative to the block.
+         */
+        private static class Block {
+
+            final int start;
+
+            final int end;
+
+            final int[] offsets;
+
+            long[] factors;
+
+            int size;
+
+            // Where this block starts in the final factors array
+            long base;
+
+            Block(int start, int end, IntToLongFunction numbers) {
+                this.start = start;
+                this.end = end;
+                this.offsets = new int[end - start];
+                this.factors = new long[8 * (end - start)];
+                FactorList list = new FactorList();
+                for (int i = start; i < end; i++) {
+                    list.clear();
+                    Factorizer.factorInto(numbers.applyAsLong(i), list);
+                    // At most 15 distinct primes fit in a long, so 30 slots is always enough
+                    if (size + 30 > factors.length) {
+                        factors = Arrays.copyOf(factors, factors.length * 2);
+                    }
+                    offsets[i - start] = size;
+                    size += list.writeInto(factors, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * A table of the smallest prime factor of every number up to some limit.
+     * <p>
+     * Dividing a number by its smallest prime factor and looking up what's left walks through
+     * its whole factorization, one lookup per prime factor. The table is built with a linear
+     * sieve, which sets every entry exactly once.
+     * </p>
+     */
+    public static class SmallestFactorTable {
+
+        /**
+         * The limit of the table {@link Factorizer} uses, which takes 16 MB.
+         */
+        public static final int DEFAULT_LIMIT = 1 << 22;
+
+        private final int[] smallestFactors;
+
+        /**
+         * Builds a table covering every number up to and including the given limit.
+         */
+        public SmallestFactorTable(int limit) {
+            if (limit < 1 || limit == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid limit: " + limit);
+            }
+            smallestFactors = new int[limit + 1];
+            int[] primes = new int[chalmersw10.PrimeCache.estimateCount(limit)];
+            int primeCount = 0;
+            for (int i = 2; i <= limit; i++) {
+                if (smallestFactors[i] == 0) {
+                    smallestFactors[i] = i;
+                    primes[primeCount++] = i;
+                }
+                // Every composite is marked once, by its smallest prime factor
+                int smallest = smallestFactors[i];
+                for (int j = 0; j < primeCount && primes[j] <= smallest; j++) {
+                    long multiple = (long) primes[j] * i;
+                    if (multiple > limit) {
+                        break;
+                    }
+                    smallestFactors[(int) multiple] = primes[j];
+                }
+            }
+        }
+
+        /**
+         * Returns the table shared by every {@link Factorizer}, building it on first use.
+         */
+        static SmallestFactorTable shared() {
+            return SharedHolder.TABLE;
+        }
+
+        /**
+         * Returns the largest number this table covers.
+         */
+        public int getLimit() {
+            return smallestFactors.length - 1;
+        }
+
+        /**
+         * Returns the smallest prime factor of the given number.
+         *
+         * @throws IllegalArgumentException If the number isn't covered by this table or is less
+         *                                  than 2
+         */
+        public int smallestPrimeFactor(int n) {
+            if (n < 2 || n > getLimit()) {
+                throw new IllegalArgumentException(n + " isn't covered by this table");
+            }
+            return smallestFactors[n];
+        }
+
+        /**
+         * Returns the prime factorization of the given number as prime and exponent pairs.
+         *
+         * @see Factorizer#factor(long)
+         */
+        public long[] factor(int n) {
+            if (n < 1 || n > getLimit()) {
+                throw new IllegalArgumentException(n + " isn't covered by this table");
+            }
+            FactorList factors = new FactorList();
+            factorInto(n, factors);
+            return factors.toPairs();
+        }
+
+        void factorInto(int n, FactorList factors) {
+            while (n > 1) {
+                int prime = smallestFactors[n];
+                int exponent = 0;
+                do {
+                    n /= prime;
+                    exponent++;
+                } while (smallestFactors[n] == prime);
+                factors.add(prime, exponent);
+            }
+        }
+
+        // Lazily builds the shared table the first time it's needed, without any locking
+        private static class SharedHolder {
+            static final SmallestFactorTable TABLE = new SmallestFactorTable(DEFAULT_LIMIT);
+        }
+    }
+
+    /**
+     * Collects prime and exponent pairs, merging and sorting them when they're read out.
+     */
+    static class FactorList {
+
+        // Every long has fewer than 64 prime factors, so this never needs to grow
+        private final long[] primes = new long[64];
+
+        private final int[] exponents = new int[64];
+
+        private int size;
+
+        void add(long prime, int exponent) {
+            primes[size] = prime;
+            exponents[size] = exponent;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Returns the collected factors as prime and exponent pairs, smallest prime first.
+         */
+        long[] toPairs() {
+            sort();
+            return writePairs(new long[2 * size], 0);
+        }
+
+        /**
+         * Writes the collected factors into the array as prime and exponent pairs, smallest
+         * prime first, starting at the given index.
+         *
+         * @return How many longs were written
+         */
+        int writeInto(long[] pairs, int offset) {
+            sort();
+            writePairs(pairs, offset);
+            return 2 * size;
+        }
+
+        private void sort() {
+            // There are only a handful of factors, so insertion sort is plenty
+            for (int i = 1; i < size; i++) {
+                long prime = primes[i];
+                int exponent = exponents[i];
+                int j = i - 1;
+                for (; j >= 0 && primes[j] > prime; j--) {
+                    primes[j + 1] = primes[j];
+                    exponents[j + 1] = exponents[j];
+                }
+                primes[j + 1] = prime;
+                exponents[j + 1] = exponent;
+            }
+            int merged = 0;
+            for (int i = 0; i < size; i++) {
+                if (merged > 0 && primes[merged - 1] == primes[i]) {
+                    exponents[merged - 1] += exponents[i];
+                } else {
+                    primes[merged] = primes[i];
+                    exponents[merged] = exponents[i];
+                    merged++;
+                }
+            }
+            size = merged;
+        }
+
+        private long[] writePairs(long[] pairs, int offset) {
+            for (int i = 0; i < size; i++) {
+                pairs[offset + 2 * i] = primes[i];
+                pairs[offset + 2 * i + 1] = exponents[i];
+            }
+            return pairs;
+        }
+    }
+
+    /**
+     * Computes Fibonacci numbers in O(log n) steps with fast doubling.
+     * <p>
+     * Fast doubling uses F(2k) = F(k) (2F(k + 1) - F(k)) and F(2k + 1) = F(k)^2 + F(k + 1)^2 to
+     * walk down the bits of n, so F(n) takes about log2(n) steps instead of n. Negative indices
+     * follow F(-n) = (-1)^(n + 1) F(n).
+     * </p>
+     */
+    public static class Fibonacci {
+
+        /**
+         * The largest index whose Fibonacci number fits in a long.
+         */
+        public static final int MAX_LONG_INDEX = 92;
+
+        // Every Fibonacci number that fits in a long, so they're one array lookup away
+        private static final long[] SMALL = new long[MAX_LONG_INDEX + 1];
+
+        // Moduli up to this can be multiplied directly since their products fit in a long
+        private static final long DIRECT_MODULUS_LIMIT = 3037000499L;
+
+        static {
+            SMALL[1] = 1;
+            for (int i = 2; i < SMALL.length; i++) {
+                SMALL[i] = SMALL[i - 1] + SMALL[i - 2];
+            }
+        }
+
+        private Fibonacci() {
+        }
+
+        /**
+         * Returns the nth Fibonacci number.
+         * <p>
+         * Every Fibonacci number that fits in a long is kept in a table, so this is a single
+         * lookup.
+         * </p>
+         *
+         * @throws ArithmeticException If the number doesn't fit in a long
+         */
+        public static long fib(long n) {
+            // Checked before taking the absolute value, which Long.MIN_VALUE doesn't have
+            if (n < -MAX_LONG_INDEX || n > MAX_LONG_INDEX) {
+                throw new ArithmeticException("F(" + n + ") doesn't fit in a long");
+            }
+            long value = SMALL[(int) Math.abs(n)];
+            return n < 0 && n % 2 == 0 ? -value : value;
+        }
+
+        /**
+         * Returns the nth Fibonacci number exactly.
+         * <p>
+         * The doubling starts from the table instead of from F(0), which skips its first handful
+         * of steps, and each step is done with three squarings since F(2k) is also
+         * F(k + 1)^2 - (F(k + 1) - F(k))^2. F(n) has about 0.7n bits, so indices in the millions
+         * are fine.
+         * </p>
+         */
+        public static BigInteger exact(int n) {
+            int magnitude = Math.abs(n); // Integer.MIN_VALUE stays negative, which is caught below
+            if (magnitude < 0) {
+                throw new ArithmeticException("F(" + n + ") is too big to compute");
+            }
+            // Seed with the longest prefix of n's bits that the table covers
+            int shift = Math.max(0, 32 - Integer.numberOfLeadingZeros(magnitude) - 6);
+            int prefix = magnitude >>> shift;
+            BigInteger a = BigInteger.valueOf(SMALL[prefix]);
+            BigInteger b = BigInteger.valueOf(SMALL[prefix + 1]);
+            for (int bit = shift - 1; bit >= 0; bit--) {
+                BigInteger aSquared = a.multiply(a);
+                BigInteger bSquared = b.multiply(b);
+                BigInteger difference = b.subtract(a);
+                BigInteger even = bSquared.subtract(difference.multiply(difference));
+                BigInteger odd = aSquared.add(bSquared);
+                if (((magnitude >>> bit) & 1) != 0) {
+                    a = odd;
+                    b = even.add(odd);
+                } else {
+                    a = even;
+                    b = odd;
+                }
+            }
+            return n < 0 && magnitude % 2 == 0 ? a.negate() : a;
+        }
+
+        /**
+         * Returns the nth Fibonacci number modulo the given modulus.
+         * <p>
+         * Small moduli are multiplied directly. Bigger odd moduli work in Montgomery form, and
+         * bigger even ones fall back to shift-and-add multiplication.
+         * </p>
+         *
+         * @return A value between 0 and the modulus, exclusive
+         * @throws IllegalArgumentException If the modulus isn't positive
+         */
+        public static long fib(long n, long modulus) {
+            if (modulus < 1) {
+                throw new IllegalArgumentException("Modulus must be positive: " + modulus);
+            }
+            if (modulus == 1) {
+                return 0;
+            }
+            // Unsigned, so that even Long.MIN_VALUE has a magnitude
+            long magnitude = n < 0 ? -n : n;
+            long result;
+            if (modulus <= DIRECT_MODULUS_LIMIT) {
+                result = doubleUp(magnitude, modulus, 1, (a, b) -> a * b % modulus);
+            } else if ((modulus & 1) != 0) {
+                chalmersw10.Montgomery montgomery = new chalmersw10.Montgomery(modulus);
+                long montgomeryResult = doubleUp(magnitude, modulus, montgomery.one,
+                        montgomery::multiply);
+                result = montgomery.fromMontgomery(montgomeryResult);
+            } else {
+                result = doubleUp(magnitude, modulus, 1, (a, b) -> multiplyMod(a, b, modulus));
+            }
+            boolean negate = n < 0 && (magnitude & 1) == 0;
+            return negate && result != 0 ? modulus - result : result;
+        }
+
+        /**
+         * Runs fast doubling modulo the given modulus, where {@code one} is whatever stands
+         * for 1 under the given multiplication.
+         */
+        private static long doubleUp(long n, long modulus, long one, LongBinaryOperator multiply) {
+            long a = 0;
+            long b = one;
+            for (int bit = 63 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+                long even = multiply.applyAsLong(a, subtractMod(addMod(b, b, modulus), a, modulus));
+                long odd = addMod(multiply.applyAsLong(a, a), multiply.applyAsLong(b, b), modulus);
+                if (((n >>> bit) & 1) != 0) {
+                    a = odd;
+                    b = addMod(even, odd, modulus);
+                } else {
+                    a = even;
+                    b = odd;
+                }
+            }
+            return a;
+        }
+
+        private static long addMod(long a, long b, long modulus) {
+            long sum = a + b;
+            // Both are below 2^63, so an overflow just shows up as a negative sum
+            return sum < 0 || sum >= modulus ? sum - modulus : sum;
+        }
+
+        private static long subtractMod(long a, long b, long modulus) {
+            long difference = a - b;
+            return difference < 0 ? difference + modulus : difference;
+        }
+
+        private static long multiplyMod(long a, long b, long modulus) {
+            long result = 0;
+            for (; b != 0; b >>>= 1) {
+                if ((b & 1) != 0) {
+                    result = addMod(result, a, modulus);
+                }
+                a = addMod(a, a, modulus);
+            }
+            return result;
         }
-        return findFibonacci(n - 1) + findFibonacci(n - 2);
     }
 }